@@ -3,6 +3,52 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.*;
 import java.io.*;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
@@ -1915,13 +1961,12 @@ class AnimatedTextArea extends JTextArea {
 
 // 历史记录窗口类
 class HistoryWindow extends JDialog {
-    private ArrayList<HistoryEntry> historyEntries;
-    private ArrayList<String> importedQuestions;
+    private QuestionStore importedQuestions;
     private JList<String> questionList;
     private JList<String> importedList;
     private AnimatedTextArea contentArea;
-    private DefaultListModel<String> listModel;
-    private DefaultListModel<String> importedModel;
+    private HistoryListModel listModel;
+    private QuestionListModel importedModel;
     private ThinkingPad parentWindow;
     private DynamicBackgroundPanel backgroundPanel;
     private Timer animationTimer;
@@ -1943,7 +1988,6 @@ class HistoryWindow extends JDialog {
     }
     
     private void initializeHistory() {
-        historyEntries = new ArrayList<>();
         particles = new ArrayList<>();
         for (int i = 0; i < 10; i++) {
             particles.add(new Particle());
@@ -1951,24 +1995,19 @@ class HistoryWindow extends JDialog {
     }
     
     private void initializeImportedQuestions() {
-        importedQuestions = new ArrayList<>();
+        importedQuestions = new QuestionStore();
+        importedModel = new QuestionListModel(importedQuestions);
     }
     
     private void loadImportedQuestions() {
+        ThinkingPadStorage storage = parentWindow.getStorage();
+        if (storage == null) {
+            return;
+        }
         try {
-            String filePath = System.getProperty("user.dir") + File.separator + "imported_questions.txt";
-            File file = new File(filePath);
-            if (file.exists()) {
-                importedQuestions.clear();
-                try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        if (!line.trim().isEmpty()) {
-                            importedQuestions.add(line);
-                        }
-                    }
-                }
-            }
+            ArrayList<String> lines = storage.loadQuestions();
+            importedModel.clear();
+            importedModel.addAll(lines);
         } catch (Exception e) {
             System.out.println("加载已导入问题失败: " + e.getMessage());
         }
@@ -2373,8 +2412,8 @@ class HistoryWindow extends JDialog {
         listLabel.setForeground(new Color(255, 255, 255));
         listLabel.setBorder(BorderFactory.createEmptyBorder(0, 0, 15, 0));
         
-        listModel = new DefaultListModel<>();
-        questionList = new AnimatedJList(listModel, historyEntries);
+        listModel = new HistoryListModel();
+        questionList = new AnimatedJList(listModel);
         questionList.setFont(new Font("微软雅黑", Font.PLAIN, 14));
         questionList.setForeground(Color.WHITE);
         questionList.setOpaque(false);
@@ -2438,6 +2477,8 @@ class HistoryWindow extends JDialog {
         leftScrollPane.getVerticalScrollBar().setUI(new ModernScrollBarUI());
         leftScrollPane.getHorizontalScrollBar().setOpaque(false);
         leftScrollPane.getHorizontalScrollBar().setUI(new ModernScrollBarUI());
+        // 滚动到顶部后按需加载更早的历史记录
+        OlderHistoryLoader.install(questionList, leftScrollPane, parentWindow.getHistoryRepository());
         
         leftPanel.add(listLabel, BorderLayout.NORTH);
         leftPanel.add(leftScrollPane, BorderLayout.CENTER);
@@ -2519,8 +2560,7 @@ class HistoryWindow extends JDialog {
         importedPanel.add(contentPanel, BorderLayout.CENTER);
         
         // 问题列表
-        importedModel = new DefaultListModel<>();
-        importedList = new AnimatedJListForImported(importedModel, importedQuestions);
+        importedList = new AnimatedJListForImported(importedModel);
         importedList.setFont(new Font("微软雅黑", Font.PLAIN, 14));
         importedList.setForeground(Color.WHITE);
         importedList.setOpaque(false);
@@ -2649,15 +2689,12 @@ class HistoryWindow extends JDialog {
     
     private void clearAllHistory() {
         try {
-            // 删除文件
-            File file = new File("questions_data.txt");
-            if (file.exists()) {
-                file.delete();
+            // 清空日志（只保留文件头），两个窗口的列表都通过仓库的通知清空
+            HistoryRepository repository = parentWindow.getHistoryRepository();
+            if (repository != null) {
+                repository.clear();
             }
             
-            // 清空内存中的数据
-            historyEntries.clear();
-            listModel.clear();
             if (contentArea instanceof AnimatedTextArea) {
                 ((AnimatedTextArea)contentArea).animateToNewText("");
             } else {
@@ -2673,15 +2710,12 @@ class HistoryWindow extends JDialog {
     
     private void clearAllImportedQuestions() {
         try {
-            // 删除文件
-            File file = new File("imported_questions.txt");
-            if (file.exists()) {
-                file.delete();
-            }
+            // 通过主窗口清空，与主窗口的清空操作一致
+            parentWindow.clearQuestionBank();
             
-            // 清空内存中的数据
-            importedQuestions.clear();
+            // 清空内存中的数据，并让主窗口重新加载题库
             importedModel.clear();
+            parentWindow.loadImportedQuestions();
             
             parentWindow.showNotification("清空成功", "所有已导入问题已清空", NotificationPanel.NotificationType.SUCCESS);
             
@@ -2694,34 +2728,37 @@ class HistoryWindow extends JDialog {
         int selectedIndex = questionList.getSelectedIndex();
         if (selectedIndex == -1) return;
         
-        HistoryEntry selectedEntry = historyEntries.get(selectedIndex);
+        HistoryEntry selectedEntry = listModel.getEntry(selectedIndex);
         
         ModernConfirmDialog dialog = new ModernConfirmDialog((JFrame) getOwner(), 
             "确认删除", "确定要删除这条记录吗？\n\n" + selectedEntry.getQuestion());
         
         if (dialog.showConfirmDialog()) {
-            // 使用动画删除
+            // 使用动画删除（条目随列表模型一起移除）
             if (questionList instanceof AnimatedJList) {
                 ((AnimatedJList)questionList).deleteWithAnimation(selectedIndex, () -> {
-                    performActualHistoryDeletion(selectedIndex);
+                    performActualHistoryDeletion(selectedEntry);
                 });
             } else {
-                performActualHistoryDeletion(selectedIndex);
+                listModel.removeElementAt(selectedIndex);
+                performActualHistoryDeletion(selectedEntry);
             }
         }
     }
     
     private void deleteHistoryEntry(int index) {
         try {
+            HistoryEntry entry = listModel.getEntry(index);
             // 使用动画删除，动画完成后执行回调
             if (questionList instanceof AnimatedJList) {
                 ((AnimatedJList)questionList).deleteWithAnimation(index, () -> {
                     // 动画完成后的回调
-                    performActualDeletion(index);
+                    performActualDeletion(entry);
                 });
             } else {
                 // 如果不是AnimatedJList，直接删除
-                performActualDeletion(index);
+                listModel.removeElementAt(index);
+                performActualDeletion(entry);
             }
             
         } catch (Exception e) {
@@ -2729,13 +2766,10 @@ class HistoryWindow extends JDialog {
         }
     }
     
-    private void performActualDeletion(int index) {
+    private void performActualDeletion(HistoryEntry entry) {
         try {
-            // 从内存中移除
-            historyEntries.remove(index);
-            
-            // 重新保存文件
-            saveHistoryToFile();
+            // 条目已随列表模型移除，在日志中按ID标记删除
+            deleteFromJournal(entry);
             
             // 清空内容区域
             if (contentArea instanceof AnimatedTextArea) {
@@ -2744,9 +2778,6 @@ class HistoryWindow extends JDialog {
                 contentArea.setText("");
             }
             
-            // 同步更新主窗口的历史记录数据
-            parentWindow.loadHistoryEntries(); // 重新加载主窗口的历史记录数据
-            
             parentWindow.showNotification("删除成功", "历史记录已删除", NotificationPanel.NotificationType.SUCCESS);
             
         } catch (Exception e) {
@@ -2754,13 +2785,10 @@ class HistoryWindow extends JDialog {
         }
     }
     
-    private void performActualHistoryDeletion(int index) {
+    private void performActualHistoryDeletion(HistoryEntry entry) {
         try {
-            // 从内存中移除
-            historyEntries.remove(index);
-            
-            // 重新保存文件
-            saveHistoryToFile();
+            // 条目已随列表模型移除，在日志中按ID标记删除
+            deleteFromJournal(entry);
             
             // 清空内容区域
             if (contentArea instanceof AnimatedTextArea) {
@@ -2769,9 +2797,6 @@ class HistoryWindow extends JDialog {
                 contentArea.setText("");
             }
             
-            // 同步更新主窗口的历史记录数据
-            parentWindow.loadHistoryEntries(); // 重新加载主窗口的历史记录数据
-            
             parentWindow.showNotification("删除成功", "历史记录已删除", NotificationPanel.NotificationType.SUCCESS);
             
         } catch (Exception e) {
@@ -2779,88 +2804,24 @@ class HistoryWindow extends JDialog {
         }
     }
     
-    private void saveHistoryToFile() {
-        try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream("questions_data.txt"), "UTF-8"))) {
-            for (HistoryEntry entry : historyEntries) {
-                writer.println("问题：" + entry.getQuestion());
-                writer.println("我的思考：" + entry.getAnswer());
-                writer.println("记录时间：" + entry.getTimestamp());
-                writer.println("---");
-            }
-        } catch (Exception e) {
-            System.err.println("保存历史记录失败: " + e.getMessage());
+    // 通过共享仓库按ID删除记录，主窗口的列表会收到删除通知
+    private void deleteFromJournal(HistoryEntry entry) throws IOException {
+        HistoryRepository repository = parentWindow.getHistoryRepository();
+        if (repository != null) {
+            repository.delete(entry.getId());
         }
     }
     
-
-    
-
-    
     private void loadHistory() {
-        // 清空现有数据
-        historyEntries.clear();
-        listModel.clear();
-        
-        File file = new File("questions_data.txt");
-        if (!file.exists()) {
-            System.out.println("历史记录文件不存在: " + file.getAbsolutePath());
+        HistoryRepository repository = parentWindow.getHistoryRepository();
+        if (repository == null) {
+            System.out.println("历史记录日志未打开");
             return;
         }
         
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
-            StringBuilder currentQuestion = new StringBuilder();
-            StringBuilder currentAnswer = new StringBuilder();
-            String currentTimestamp = "";
-            boolean readingQuestion = false;
-            boolean readingAnswer = false;
-            
-            String line;
-            while ((line = reader.readLine()) != null) {
-                line = line.trim();
-                
-                if (line.startsWith("问题：")) {
-                    currentQuestion = new StringBuilder(line.substring(3));
-                    readingQuestion = true;
-                    readingAnswer = false;
-                } else if (line.startsWith("我的思考：")) {
-                    currentAnswer = new StringBuilder(line.substring(5));
-                    readingQuestion = false;
-                    readingAnswer = true;
-                } else if (line.startsWith("记录时间：")) {
-                    currentTimestamp = line.substring(5);
-                } else if (line.equals("---")) {
-                    if (currentQuestion.length() > 0 && currentAnswer.length() > 0) {
-                        HistoryEntry entry = new HistoryEntry(
-                            currentQuestion.toString(),
-                            currentAnswer.toString(),
-                            currentTimestamp
-                        );
-                        historyEntries.add(entry);
-                        // 添加时间戳以区分相同问题的不同回答
-                        String displayText = "问题：" + entry.getQuestion();
-                        if (!entry.getTimestamp().isEmpty()) {
-                            displayText += " [" + entry.getTimestamp() + "]";
-                        }
-                        listModel.addElement(displayText);
-                    }
-                    currentQuestion = new StringBuilder();
-                    currentAnswer = new StringBuilder();
-                    currentTimestamp = "";
-                    readingQuestion = false;
-                    readingAnswer = false;
-                } else if (readingQuestion) {
-                    currentQuestion.append("\n").append(line);
-                } else if (readingAnswer) {
-                    currentAnswer.append("\n").append(line);
-                }
-            }
-            
-            System.out.println("历史记录加载完成，共 " + historyEntries.size() + " 条记录");
-            
-        } catch (Exception e) {
-            parentWindow.showNotification("读取失败", "读取历史记录失败: " + e.getMessage(), NotificationPanel.NotificationType.ERROR);
-            e.printStackTrace();
-        }
+        // 使用共享仓库的快照，不再重新读取文件，之后的变化通过通知增量更新
+        listModel.attach(repository);
+        System.out.println("历史记录加载完成，共 " + listModel.getSize() + " 条记录");
     }
     
     private void showSelectedContent() {
@@ -2875,12 +2836,21 @@ class HistoryWindow extends JDialog {
         }
         
         // 确保selectedIndex在有效范围内
-        if (selectedIndex >= historyEntries.size()) {
-            System.err.println("选中的索引超出历史记录范围: " + selectedIndex + " >= " + historyEntries.size());
+        if (selectedIndex >= listModel.getSize()) {
+            System.err.println("选中的索引超出历史记录范围: " + selectedIndex + " >= " + listModel.getSize());
             return;
         }
         
-        HistoryEntry entry = historyEntries.get(selectedIndex);
+        // 列表中只保存摘要，通过索引读取完整记录
+        HistoryEntry entry = null;
+        try {
+            HistoryRepository repository = parentWindow.getHistoryRepository();
+            if (repository != null) {
+                entry = repository.read(listModel.getEntry(selectedIndex).getId());
+            }
+        } catch (IOException e) {
+            System.err.println("读取历史记录失败: " + e.getMessage());
+        }
         if (entry == null) {
             System.err.println("获取的历史记录条目为null");
             return;
@@ -2919,12 +2889,12 @@ class HistoryWindow extends JDialog {
         }
         
         // 确保selectedIndex在有效范围内
-        if (selectedIndex >= importedQuestions.size()) {
-            System.err.println("选中的索引超出导入问题范围: " + selectedIndex + " >= " + importedQuestions.size());
+        if (selectedIndex >= importedModel.getSize()) {
+            System.err.println("选中的索引超出导入问题范围: " + selectedIndex + " >= " + importedModel.getSize());
             return;
         }
         
-        String question = importedQuestions.get(selectedIndex);
+        String question = importedModel.getElementAt(selectedIndex);
         if (question == null || question.trim().isEmpty()) {
             System.err.println("获取的导入问题为空");
             return;
@@ -2967,6 +2937,12 @@ class HistoryWindow extends JDialog {
         if (importedList instanceof AnimatedJListForImported) {
             ((AnimatedJListForImported) importedList).cleanup();
         }
+        
+        // 不再接收历史记录仓库的变化通知
+        HistoryRepository repository = parentWindow.getHistoryRepository();
+        if (repository != null) {
+            listModel.detach(repository);
+        }
     }
     
     // 删除选中的已导入问题
@@ -2980,13 +2956,14 @@ class HistoryWindow extends JDialog {
             "确认删除", "确定要删除这个问题吗？\n\n" + selectedQuestion);
         
         if (dialog.showConfirmDialog()) {
-            // 使用动画删除
+            // 使用动画删除（问题随列表模型从题库中移除）
             if (importedList instanceof AnimatedJListForImported) {
                 ((AnimatedJListForImported)importedList).deleteWithAnimation(selectedIndex, () -> {
-                    performActualImportedDeletion(selectedIndex);
+                    performActualImportedDeletion();
                 });
             } else {
-                performActualImportedDeletion(selectedIndex);
+                importedModel.removeElementAt(selectedIndex);
+                performActualImportedDeletion();
             }
         }
     }
@@ -2998,11 +2975,12 @@ class HistoryWindow extends JDialog {
             if (importedList instanceof AnimatedJListForImported) {
                 ((AnimatedJListForImported)importedList).deleteWithAnimation(index, () -> {
                     // 动画完成后的回调
-                    performActualImportedDeletion(index);
+                    performActualImportedDeletion();
                 });
             } else {
                 // 如果不是AnimatedJListForImported，直接删除
-                performActualImportedDeletion(index);
+                importedModel.removeElementAt(index);
+                performActualImportedDeletion();
             }
             
         } catch (Exception e) {
@@ -3011,12 +2989,9 @@ class HistoryWindow extends JDialog {
         }
     }
     
-    private void performActualImportedDeletion(int index) {
+    private void performActualImportedDeletion() {
         try {
-            // 从内存中移除
-            importedQuestions.remove(index);
-            
-            // 重新保存文件
+            // 问题已随列表模型移除，重新保存文件
             saveImportedQuestionsToFile();
             
             // 同步更新主窗口的导入问题数据
@@ -3031,12 +3006,10 @@ class HistoryWindow extends JDialog {
         }
     }
     
-    // 保存已导入问题到文件
+    // 保存已导入问题到存储
     private void saveImportedQuestionsToFile() {
-        try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream("imported_questions.txt"), "UTF-8"))) {
-            for (String question : importedQuestions) {
-                writer.println(question);
-            }
+        try {
+            parentWindow.getStorage().replaceQuestions(importedQuestions.snapshot());
         } catch (Exception e) {
             System.err.println("保存已导入问题失败: " + e.getMessage());
         }
@@ -3045,26 +3018,18 @@ class HistoryWindow extends JDialog {
     // 加载已导入问题
     private void loadImportedQuestionsFromFile() {
         // 清空现有数据
-        importedQuestions.clear();
         importedModel.clear();
         
-        File file = new File("imported_questions.txt");
-        if (!file.exists()) {
-            System.out.println("已导入问题文件不存在: " + file.getAbsolutePath());
+        ThinkingPadStorage storage = parentWindow.getStorage();
+        if (storage == null) {
             return;
         }
         
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                line = line.trim();
-                if (!line.isEmpty() && !line.startsWith("#")) {
-                    importedQuestions.add(line);
-                    importedModel.addElement(line);
-                }
-            }
+        try {
+            ArrayList<String> lines = storage.loadQuestions();
+            importedModel.addAll(lines);
             
-            System.out.println("已导入问题加载完成，共 " + importedQuestions.size() + " 个问题");
+            System.out.println("已导入问题加载完成，共 " + importedQuestions.snapshot().size() + " 个问题");
             
         } catch (Exception e) {
             parentWindow.showNotification("读取失败", "读取已导入问题失败: " + e.getMessage(), 
@@ -3135,20 +3100,190 @@ class HistoryWindow extends JDialog {
     }
 }
 
+// 历史记录列表模型：只保存条目，某一行的显示文字在列表渲染这一行时才生成
+// 配合固定的行高和行宽，列表只为可见的行解码问题和时间；监听仓库的增量变化保持与内存视图一致，不再重新加载
+class HistoryListModel extends AbstractListModel<String> implements HistoryRepository.Listener {
+    private ArrayList<HistoryEntry> entries = new ArrayList<>();
+    
+    // 从仓库的只读快照复制条目，之后只接收增量变化
+    public void attach(HistoryRepository repository) {
+        setEntries(new ArrayList<>(repository.addListener(this)));
+    }
+    
+    public void detach(HistoryRepository repository) {
+        repository.removeListener(this);
+    }
+    
+    @Override
+    public void entryAdded(HistoryEntry entry) {
+        int position = HistoryRepository.search(entries, entry.getId());
+        if (position < 0) {
+            position = -position - 1;
+            entries.add(position, entry);
+            fireIntervalAdded(this, position, position);
+        }
+    }
+    
+    // 删除动画开始时条目已从本模型移除，这时找不到对应条目，直接忽略
+    @Override
+    public void entryDeleted(long id) {
+        int position = HistoryRepository.search(entries, id);
+        if (position >= 0) {
+            removeElementAt(position);
+        }
+    }
+    
+    @Override
+    public void entriesCleared() {
+        clear();
+    }
+    
+    @Override
+    public void olderEntriesLoaded(java.util.List<HistoryEntry> older) {
+        entries.addAll(0, older);
+        fireIntervalAdded(this, 0, older.size() - 1);
+    }
+    
+    @Override
+    public int getSize() {
+        return entries.size();
+    }
+    
+    @Override
+    public String getElementAt(int index) {
+        HistoryEntry entry = entries.get(index);
+        // 添加时间戳以区分相同问题的不同回答
+        String displayText = "问题：" + entry.getQuestion();
+        if (!entry.getTimestamp().isEmpty()) {
+            displayText += " [" + entry.getTimestamp() + "]";
+        }
+        return displayText;
+    }
+    
+    public HistoryEntry getEntry(int index) {
+        return entries.get(index);
+    }
+    
+    public void setEntries(ArrayList<HistoryEntry> newEntries) {
+        int oldSize = entries.size();
+        entries = newEntries;
+        if (oldSize > 0) {
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        }
+        if (!entries.isEmpty()) {
+            fireIntervalAdded(this, 0, entries.size() - 1);
+        }
+    }
+    
+    public void removeElementAt(int index) {
+        entries.remove(index);
+        fireIntervalRemoved(this, index, index);
+    }
+    
+    public void clear() {
+        setEntries(new ArrayList<>());
+    }
+}
+
+// 历史记录列表在顶部继续向上滚动时，在后台加载更早的月份分段
+// 较早的条目插入到列表开头后，把滚动位置下移同样的高度，原来可见的行保持不动
+class OlderHistoryLoader {
+    private final JList<String> list;
+    private final JScrollPane scrollPane;
+    private final HistoryRepository repository;
+    private boolean loading;
+    private int lastValue;
+    
+    static void install(JList<String> list, JScrollPane scrollPane, HistoryRepository repository) {
+        if (repository != null) {
+            new OlderHistoryLoader(list, scrollPane, repository);
+        }
+    }
+    
+    private OlderHistoryLoader(JList<String> list, JScrollPane scrollPane, HistoryRepository repository) {
+        this.list = list;
+        this.scrollPane = scrollPane;
+        this.repository = repository;
+        JScrollBar scrollBar = scrollPane.getVerticalScrollBar();
+        // 滚动条拖动或滚轮滚动到顶部
+        scrollBar.addAdjustmentListener(e -> {
+            if (e.getValue() == 0 && lastValue > 0) {
+                loadOlder();
+            }
+            lastValue = e.getValue();
+        });
+        // 已在顶部（或列表不足一屏）时继续向上滚动滚轮
+        scrollPane.addMouseWheelListener(e -> {
+            if (e.getWheelRotation() < 0 && scrollBar.getValue() == 0) {
+                loadOlder();
+            }
+        });
+        list.getModel().addListDataListener(new javax.swing.event.ListDataListener() {
+            @Override
+            public void intervalAdded(javax.swing.event.ListDataEvent e) {
+                int added = e.getIndex1() - e.getIndex0() + 1;
+                // 插入到开头且列表原本不为空时才是更早的条目，整表替换不需要调整
+                if (e.getIndex0() == 0 && list.getModel().getSize() > added) {
+                    keepVisibleRows(added);
+                }
+            }
+            
+            @Override
+            public void intervalRemoved(javax.swing.event.ListDataEvent e) {
+            }
+            
+            @Override
+            public void contentsChanged(javax.swing.event.ListDataEvent e) {
+            }
+        });
+    }
+    
+    private void loadOlder() {
+        if (loading || !repository.hasOlder()) {
+            return;
+        }
+        loading = true;
+        new Thread(() -> {
+            try {
+                repository.loadOlder();
+            } catch (IOException e) {
+                System.err.println("加载更早的历史记录失败: " + e.getMessage());
+            }
+            SwingUtilities.invokeLater(() -> loading = false);
+        }, "history-loader").start();
+    }
+    
+    // 等列表处理完插入、滚动窗格重新布局后再调整位置，否则滚动范围还没有变大
+    private void keepVisibleRows(int added) {
+        int shift = added * list.getFixedCellHeight();
+        SwingUtilities.invokeLater(() -> {
+            scrollPane.validate();
+            JScrollBar scrollBar = scrollPane.getVerticalScrollBar();
+            scrollBar.setValue(scrollBar.getValue() + shift);
+        });
+    }
+}
+
 // 动画JList类，支持删除项的左滑淡出和下方项上移动画
 class AnimatedJList extends JList<String> {
     private ArrayList<AnimatingListItem> animatingItems = new ArrayList<>();
     private Timer animationTimer;
-    private DefaultListModel<String> model;
-    private ArrayList<HistoryEntry> historyEntries;
+    private HistoryListModel model;
     private Runnable afterAnimationCallback;
     
-    public AnimatedJList(DefaultListModel<String> model, ArrayList<HistoryEntry> historyEntries) {
+    public AnimatedJList(HistoryListModel model) {
         super(model);
         this.model = model;
-        this.historyEntries = historyEntries;
         setOpaque(false);
         setCellRenderer(new AnimatedListCellRenderer());
+        // 固定行高和行宽后，列表不必为计算尺寸而渲染每一行，宽度跟随视口
+        setFixedCellHeight(getFontMetrics(new Font("微软雅黑", Font.PLAIN, 14)).getHeight() + 16);
+        setFixedCellWidth(1);
+    }
+    
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return true;
     }
     
     public void deleteWithAnimation(int index, Runnable callback) {
@@ -3364,20 +3499,103 @@ class AnimatedJList extends JList<String> {
     }
 }
 
+// 已导入问题列表模型：直接展示题库的不可变快照，不再保存第二份副本，某一行的文字在渲染时才解码
+// 按版本顺序显示题库发布的快照：相邻版本发出精确的增删通知，跳过了中间版本时整体通知
+class QuestionListModel extends AbstractListModel<String> implements QuestionStore.Listener {
+    private final QuestionStore store;
+    // 列表当前显示的快照，只在EDT中读写
+    private QuestionBank shown;
+    
+    public QuestionListModel(QuestionStore store) {
+        this.store = store;
+        this.shown = store.addListener(this);
+    }
+    
+    @Override
+    public int getSize() {
+        return shown.size();
+    }
+    
+    @Override
+    public String getElementAt(int index) {
+        return shown.get(index);
+    }
+    
+    // 在EDT中发布的快照立即显示（删除动画依赖这一点），其他线程发布的快照排入EDT
+    @Override
+    public void published(QuestionBank snapshot, QuestionStore.Change change, int index) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            show(snapshot, change, index);
+        } else {
+            SwingUtilities.invokeLater(() -> show(snapshot, change, index));
+        }
+    }
+    
+    public void addAll(Collection<String> questions) {
+        store.addAll(questions);
+    }
+    
+    // 删除列表中显示的第index个问题
+    public void removeElementAt(int index) {
+        store.remove(index, shown);
+    }
+    
+    public void removeIf(java.util.function.Predicate<String> filter, int expected) {
+        store.removeIf(filter, expected);
+    }
+    
+    public void clear() {
+        store.clear();
+    }
+    
+    public void refresh() {
+        if (shown.size() > 0) {
+            fireContentsChanged(this, 0, shown.size() - 1);
+        }
+    }
+    
+    private void show(QuestionBank snapshot, QuestionStore.Change change, int index) {
+        QuestionBank old = shown;
+        if (snapshot.version() <= old.version()) {
+            // 已经显示了更新的快照
+            return;
+        }
+        shown = snapshot;
+        if (snapshot.version() == old.version() + 1 && change == QuestionStore.Change.APPENDED) {
+            fireIntervalAdded(this, index, snapshot.size() - 1);
+        } else if (snapshot.version() == old.version() + 1 && change == QuestionStore.Change.REMOVED) {
+            fireIntervalRemoved(this, index, index);
+        } else {
+            if (old.size() > 0) {
+                fireIntervalRemoved(this, 0, old.size() - 1);
+            }
+            if (snapshot.size() > 0) {
+                fireIntervalAdded(this, 0, snapshot.size() - 1);
+            }
+        }
+    }
+}
+
 // 专门用于导入问题的动画JList类
 class AnimatedJListForImported extends JList<String> {
     private ArrayList<AnimatingListItem> animatingItems = new ArrayList<>();
     private Timer animationTimer;
-    private DefaultListModel<String> model;
-    private ArrayList<String> importedQuestions;
+    private QuestionListModel model;
     private Runnable afterAnimationCallback;
     
-    public AnimatedJListForImported(DefaultListModel<String> model, ArrayList<String> importedQuestions) {
+    public AnimatedJListForImported(QuestionListModel model) {
         super(model);
         this.model = model;
-        this.importedQuestions = importedQuestions;
         setOpaque(false);
         setCellRenderer(new ImportedQuestionListCellRenderer());
+        // 固定行高和行宽后，列表只为可见的行解码问题，宽度跟随视口
+        setFixedCellHeight(getFontMetrics(new Font("微软雅黑", Font.PLAIN, 14)).getHeight() + 30);
+        setFixedCellWidth(1);
+    }
+    
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return true;
     }
     
     public void deleteWithAnimation(int index, Runnable callback) {
@@ -3870,85 +4088,6445 @@ class ModernConfirmDialog extends JDialog {
     }
 }
 
+// 程序配置：读取工作目录下的 thinkingpad.properties，同名系统属性（-Dkey=value）优先
+class ThinkingPadConfig {
+    public static final String CONFIG_FILE = "thinkingpad.properties";
+    private static final Properties properties = load();
+    
+    private static Properties load() {
+        Properties loaded = new Properties();
+        File file = new File(CONFIG_FILE);
+        if (file.exists()) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+                loaded.load(reader);
+            } catch (IOException e) {
+                System.err.println("读取配置文件失败: " + e.getMessage());
+            }
+        }
+        return loaded;
+    }
+    
+    public static String get(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = properties.getProperty(key);
+        }
+        return value != null ? value.trim() : defaultValue;
+    }
+    
+    public static long getLong(String key, long defaultValue) {
+        try {
+            return Long.parseLong(get(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            System.err.println("配置项格式错误，使用默认值: " + key);
+            return defaultValue;
+        }
+    }
+    
+    public static double getDouble(String key, double defaultValue) {
+        try {
+            return Double.parseDouble(get(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            System.err.println("配置项格式错误，使用默认值: " + key);
+            return defaultValue;
+        }
+    }
+}
+
 // 历史记录条目类
 class HistoryEntry {
+    private long id;
+    // 问题在问题字典中的ID（0表示问题文本直接保存在记录中）
+    private int questionId;
     private String question;
     private String answer;
     private String timestamp;
+    // 懒加载条目：问题和时间在第一次访问时才从内存映射或压缩块中解码
+    private Source source;
+    private long offset;
+    
+    // 懒加载条目的来源，position是记录在来源中的位置
+    interface Source {
+        HistoryEntry summary(long id, long position);
+    }
     
     public HistoryEntry(String question, String answer, String timestamp) {
+        this(0, question, answer, timestamp);
+    }
+    
+    public HistoryEntry(long id, String question, String answer, String timestamp) {
+        this(id, 0, question, answer, timestamp);
+    }
+    
+    public HistoryEntry(long id, int questionId, String question, String answer, String timestamp) {
+        this.id = id;
+        this.questionId = questionId;
         this.question = question;
         this.answer = answer;
         this.timestamp = timestamp;
     }
     
+    HistoryEntry(long id, int questionId, Source source, long offset) {
+        this.id = id;
+        this.questionId = questionId;
+        this.source = source;
+        this.offset = offset;
+    }
+    
+    // 记录在日志中的稳定ID（0表示尚未写入日志）
+    public long getId() {
+        return id;
+    }
+    
+    // 同一问题的所有记录问题ID相同，按问题归类时只需比较整数
+    public int getQuestionId() {
+        return questionId;
+    }
+    
     public String getQuestion() {
+        resolve();
         return question;
     }
     
+    // 摘要条目（列表加载时）不含思考内容，返回null
     public String getAnswer() {
         return answer;
     }
     
     public String getTimestamp() {
+        resolve();
         return timestamp;
     }
+    
+    private void resolve() {
+        if (source == null) {
+            return;
+        }
+        HistoryEntry decoded = source.summary(id, offset);
+        question = decoded != null ? decoded.question : "";
+        timestamp = decoded != null ? decoded.timestamp : "";
+        source = null;
+    }
 }
 
-public class ThinkingPad {
-    protected JFrame frame;
-    private AnimatedQuestionLabel questionLabel;
-    private JTextArea answerArea;
-    private ArrayList<String> questions;
-    private static final String DATA_FILE = "questions_data.txt";
-    private static final String QUESTIONS_FILE = "imported_questions.txt";
-    private JPanel notificationContainer;
-    private DynamicBackgroundPanel backgroundPanel;
-    private JTabbedPane mainTabbedPane;
-    
-    // 系统字体设置
-    private static final String DEFAULT_FONT_FAMILY = getSystemFont();
-    
-    // 获取系统字体，优先选择支持中文的字体
-    private static String getSystemFont() {
-        String osName = System.getProperty("os.name").toLowerCase();
-        
-        if (osName.contains("win")) {
-            // Windows系统优先使用微软雅黑
-            return "微软雅黑";
-        } else if (osName.contains("mac")) {
-            // macOS系统
-            return "PingFang SC";
+// 历史记录日志：带版本号、长度前缀、只追加的二进制格式
+// 文件头:   [int 魔数][int 版本]
+// 记录:     [int 记录长度][byte 标志][long 记录ID][int 问题长度][问题UTF-8][int 思考长度][思考UTF-8][int 时间长度][时间UTF-8]
+//           版本2起问题长度为负数 -ID 时表示问题保存在问题字典中，记录里没有问题文本
+// 删除标记: [int 记录长度][byte 标志=2][long 被删除的记录ID]
+//           版本3起标志最高位为1的记录末尾多一个 [int CRC32C]，覆盖记录长度到内容末尾的所有字节，记录长度包含这4个字节
+// 差异记录: 版本4起标志含0x40时问题ID之后多一个 [long 上一修订的记录ID]，思考字段保存相对上一修订的差异（见AnswerDelta）
+//           同一问题的重复回答在分段内组成修订链，每隔KEYFRAME_INTERVAL个修订、或差异不够紧凑时保存完整内容
+// 删除只追加一个删除标记，失效的字节超过阈值后由后台线程整理到新文件并原子替换
+// 每次fsync后在索引中记下校验点，启动时只验证校验点之后写入的记录，截断其中第一条不完整或校验失败的记录
+// 每个日志文件是分段历史记录中的一个月份分段，问题字典由所有分段共享
+class HistoryJournal {
+    static final int MAGIC = 0x54504A4C; // "TPJL"
+    static final int VERSION = 4;
+    static final int HEADER_SIZE = 8;
+    static final byte FLAG_LIVE = 0;
+    static final byte FLAG_DELETED = 1; // 早期版本原地标记删除的记录
+    static final byte FLAG_TOMBSTONE = 2;
+    static final byte FLAG_CHECKSUM = (byte) 0x80;
+    static final byte FLAG_DELTA = 0x40;
+    static final int CHECKSUM_SIZE = 4;
+    static final int TOMBSTONE_SIZE = 4 + 9 + CHECKSUM_SIZE;
+    // 修订链上每隔多少个修订保存一次完整内容，限制还原一个修订时需要应用的差异数
+    static final int KEYFRAME_INTERVAL = 16;
+    private static final int REVISION_CACHE_SIZE = 256;
+    
+    private final File file;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    // 记录ID -> 偏移/长度的旁路索引
+    private final HistoryIndex index;
+    // 问题文本 -> 问题ID的持久化字典（所有分段共享，由分段日志负责刷盘和关闭）
+    private final QuestionDictionary dictionary;
+    private long nextId = 1;
+    // 问题ID -> 本分段中该问题最新的存活记录ID，第一次追加时按索引建立
+    private HashMap<Integer, Long> latestIds;
+    // 最近用到的问题的最新修订，保存完整的思考内容，下一次回答直接与它求差异
+    private final LinkedHashMap<Integer, Revision> revisions = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Revision> eldest) {
+            return size() > REVISION_CACHE_SIZE;
+        }
+    };
+    
+    // 后台整理：失效字节占比超过阈值且不少于最小字节数时触发
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "history-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private double compactionThreshold = 0.5;
+    private long compactionMinBytes = 64 * 1024;
+    private LongConsumer compactionListener;
+    private boolean compactionScheduled;
+    // 最近一次加载列表时建立的内存映射，截断或替换文件前释放
+    private MappedHistoryReader mapped;
+    
+    private HistoryJournal(File file, QuestionDictionary dictionary, long firstId) throws IOException {
+        this.file = file;
+        this.dictionary = dictionary;
+        this.nextId = firstId;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+        if (channel.size() < HEADER_SIZE) {
+            writeHeader();
         } else {
-            // Linux或其他系统
-            return "SansSerif";
+            checkHeader();
+        }
+        
+        // 索引有效时只验证校验点之后的部分、只扫描索引之后新写入的部分；
+        // 索引无效，或已索引的范围内有记录被截断时，从头验证并重建索引
+        this.index = new HistoryIndex(new File(file.getPath() + ".idx"));
+        boolean indexValid = index.load() && index.indexedLength() <= channel.size();
+        long verified = recover(indexValid ? Math.min(index.checkpoint(), index.indexedLength()) : HEADER_SIZE);
+        if (!indexValid || verified < index.indexedLength()) {
+            if (verified > HEADER_SIZE) {
+                System.out.println("历史记录索引无效，正在重建: " + index.getFile().getName());
+            }
+            index.reset(HEADER_SIZE);
+        }
+        if (index.count() > 0) {
+            nextId = Math.max(nextId, index.idAt(index.count() - 1) + 1);
+        }
+        scan(index.indexedLength());
+        // 验证过的数据可能还只在系统缓存中，刷盘后才能作为新的校验点
+        if (index.checkpoint() < verified) {
+            channel.force(false);
+            index.checkpoint(verified);
         }
+        maybeScheduleCompaction();
     }
     
-    public ThinkingPad() {
-        // 设置系统字体和UI属性
-        setupSystemProperties();
-        
-        System.out.println("初始化问题...");
-        initializeQuestions();
-        System.out.println("创建GUI...");
-        createGUI();
-        System.out.println("刷新已导入问题显示...");
-        // 程序启动后刷新已导入问题选项卡显示
-        SwingUtilities.invokeLater(() -> {
-            refreshImportedTab();
-            refreshHistoryTab(); // 添加刷新历史记录选项卡
-        });
-        System.out.println("ThinkingPad构造完成");
+    // 打开一个分段日志，新写入的记录ID不小于firstId
+    public static HistoryJournal open(File journalFile, QuestionDictionary dictionary, long firstId) throws IOException {
+        return new HistoryJournal(journalFile, dictionary, firstId);
     }
     
-    // 设置系统属性，确保中文字体正确显示
-    private void setupSystemProperties() {
-        try {
-            // 设置默认字体
-            Font defaultFont = new Font(DEFAULT_FONT_FAMILY, Font.PLAIN, 12);
-            
-            // 设置所有UI组件的默认字体
+    public File getFile() {
+        return file;
+    }
+    
+    static File dictionaryFile(File journalFile) {
+        return new File(journalFile.getPath() + ".dict");
+    }
+    
+    // 按问题ID取得问题文本（供映射读取器解码时使用）
+    String questionText(int questionId) {
+        String text = dictionary.text(questionId);
+        return text != null ? text : "";
+    }
+    
+    public synchronized int size() {
+        return index.liveCount();
+    }
+    
+    // 本分段第一条记录的ID，分段为空时返回下一个将要分配的ID
+    public synchronized long firstId() {
+        return index.count() > 0 ? index.idAt(0) : nextId;
+    }
+    
+    public synchronized long nextId() {
+        return nextId;
+    }
+    
+    // 设置触发后台整理的失效字节比例（0~1）和最小失效字节数
+    public synchronized void setCompactionPolicy(double threshold, long minBytes) {
+        this.compactionThreshold = threshold;
+        this.compactionMinBytes = minBytes;
+    }
+    
+    // 整理完成后以回收的字节数回调（在整理线程中调用）
+    public synchronized void setCompactionListener(LongConsumer listener) {
+        this.compactionListener = listener;
+    }
+    
+    // 当前失效（已删除记录和删除标记）占用的字节数
+    public synchronized long deadBytes() throws IOException {
+        return channel.size() - HEADER_SIZE - index.liveBytes();
+    }
+    
+    // 追加一条记录，返回带有新ID的条目
+    public synchronized HistoryEntry append(String question, String answer, String timestamp) throws IOException {
+        ArrayList<HistoryEntry> entries = new ArrayList<>(1);
+        entries.add(new HistoryEntry(question, answer, timestamp));
+        return appendAll(entries).get(0);
+    }
+    
+    // 批量追加：所有记录合并成一次写入，返回带有新ID的条目
+    // 已回答过的问题只保存相对上一修订的差异，同一批中的多次回答依次串在修订链上
+    public synchronized ArrayList<HistoryEntry> appendAll(ArrayList<HistoryEntry> entries) throws IOException {
+        ArrayList<HistoryEntry> written = new ArrayList<>(entries.size());
+        ByteBuffer[] records = new ByteBuffer[entries.size()];
+        int[] questionIds = new int[records.length];
+        long[] baseIds = new long[records.length];
+        long offset = channel.size();
+        int total = 0;
+        try {
+            for (int i = 0; i < records.length; i++) {
+                HistoryEntry entry = entries.get(i);
+                questionIds[i] = dictionary.intern(entry.getQuestion());
+                byte[] answer = entry.getAnswer().getBytes(StandardCharsets.UTF_8);
+                Revision base = latestRevision(questionIds[i]);
+                byte[] delta = base != null && base.depth + 1 < KEYFRAME_INTERVAL ? AnswerDelta.encode(base.answer, answer) : null;
+                // 差异加上链接的开销至少要比完整内容省四分之一，否则保存完整内容并重新开始一条链
+                if (delta != null && delta.length + 8 <= answer.length * 3 / 4) {
+                    records[i] = encodeDelta(nextId + i, questionIds[i], base.id, delta, entry.getTimestamp());
+                    baseIds[i] = base.id;
+                    remember(questionIds[i], new Revision(nextId + i, answer, base.depth + 1));
+                } else {
+                    records[i] = encodeRecord(nextId + i, FLAG_LIVE, questionIds[i], answer, entry.getTimestamp());
+                    remember(questionIds[i], new Revision(nextId + i, answer, 0));
+                }
+                total += records[i].remaining();
+            }
+            ByteBuffer batch = ByteBuffer.allocate(total);
+            for (ByteBuffer record : records) {
+                batch.put(record);
+            }
+            batch.flip();
+            writeFully(batch, offset);
+        } catch (IOException | RuntimeException e) {
+            // 缓存里已经记下了没能写入的修订，丢弃后按索引重新建立
+            forgetRevisions();
+            throw e;
+        }
+        
+        for (int i = 0; i < records.length; i++) {
+            HistoryEntry entry = entries.get(i);
+            long id = nextId++;
+            int length = records[i].limit();
+            index.add(id, offset, length, FLAG_LIVE, questionIds[i], baseIds[i], offset + length);
+            written.add(new HistoryEntry(id, questionIds[i], entry.getQuestion(), entry.getAnswer(), entry.getTimestamp()));
+            offset += length;
+        }
+        return written;
+    }
+    
+    // 把已写入的数据刷到磁盘并推进校验点（字典由分段日志先行刷盘）
+    public synchronized void force() throws IOException {
+        channel.force(false);
+        index.checkpoint(channel.size());
+    }
+    
+    // 删除记录：在日志末尾追加删除标记，必要时安排后台整理
+    public synchronized boolean delete(long id) throws IOException {
+        int slot = index.find(id);
+        if (slot < 0 || index.flagAt(slot) != FLAG_LIVE) {
+            return false;
+        }
+        long offset = channel.size();
+        ByteBuffer tombstone = ByteBuffer.allocate(TOMBSTONE_SIZE);
+        tombstone.putInt(TOMBSTONE_SIZE - 4).put((byte) (FLAG_TOMBSTONE | FLAG_CHECKSUM)).putLong(id);
+        writeFully(seal(tombstone), offset);
+        index.markDeleted(slot);
+        index.advance(offset + TOMBSTONE_SIZE);
+        // 删除的是最新修订时，该问题的下一次回答保存完整内容
+        int questionId = index.questionIdAt(slot);
+        if (latestIds != null && Long.valueOf(id).equals(latestIds.get(questionId))) {
+            latestIds.remove(questionId);
+        }
+        Revision revision = revisions.get(questionId);
+        if (revision != null && revision.id == id) {
+            revisions.remove(questionId);
+        }
+        maybeScheduleCompaction();
+        return true;
+    }
+    
+    // 按ID读取单条完整记录：通过索引定位后只读取并解码这一条记录，记录在映射范围内时直接从映射中复制；
+    // 差异记录沿修订链还原出完整的思考内容
+    public synchronized HistoryEntry read(long id) throws IOException {
+        int slot = index.find(id);
+        if (slot < 0 || index.flagAt(slot) != FLAG_LIVE) {
+            return null;
+        }
+        Record record = parse(recordAt(slot));
+        if (kind(record.flag) != FLAG_LIVE) {
+            return null;
+        }
+        String question = record.questionId > 0 ? questionText(record.questionId) : record.question;
+        byte[] answer = record.baseId != 0 ? resolve(record).answer : record.answer;
+        return new HistoryEntry(record.id, record.questionId, question, new String(answer, StandardCharsets.UTF_8), record.timestamp);
+    }
+    
+    // 按文件顺序列出所有存活记录：把日志映射到内存后只扫描记录边界，
+    // 返回的条目只含ID和偏移，问题和时间在显示时才解码，思考内容留到选中时再通过read读取
+    public synchronized ArrayList<HistoryEntry> readSummaries() throws IOException {
+        releaseMapping();
+        long end = channel.size();
+        if (end <= HEADER_SIZE) {
+            return new ArrayList<>();
+        }
+        mapped = new MappedHistoryReader(this, channel, end);
+        return mapped.scan(HEADER_SIZE, index.liveCount(), this::isLive);
+    }
+    
+    // 按索引中的问题ID找出问题的所有存活记录
+    public synchronized ArrayList<HistoryEntry> findByQuestion(int questionId) throws IOException {
+        ArrayList<HistoryEntry> found = new ArrayList<>();
+        for (int slot = 0; slot < index.count(); slot++) {
+            if (index.flagAt(slot) == FLAG_LIVE && index.questionIdAt(slot) == questionId) {
+                found.add(read(index.idAt(slot)));
+            }
+        }
+        return found;
+    }
+    
+    // 按ID顺序导出存活记录的完整字节（压缩为冷分段时使用），上一修订已删除的差异记录改写为完整内容
+    synchronized void exportLive(RecordSink sink) throws IOException {
+        for (int slot = 0; slot < index.count(); slot++) {
+            if (index.flagAt(slot) != FLAG_LIVE) {
+                continue;
+            }
+            ByteBuffer record = recordAt(slot);
+            long baseId = index.baseIdAt(slot);
+            int base = baseId != 0 ? index.find(baseId) : -1;
+            if (baseId != 0 && (base < 0 || index.flagAt(base) != FLAG_LIVE)) {
+                Record parsed = parse(record.duplicate());
+                record = encodeRecord(parsed.id, FLAG_LIVE, parsed.questionId, resolve(parsed).answer, parsed.timestamp);
+            }
+            sink.accept(index.idAt(slot), index.questionIdAt(slot), record);
+        }
+    }
+    
+    // 关闭前等待进行中的整理完成
+    public void close() throws IOException {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            releaseMapping();
+            // 正常关闭时推进校验点，下次启动不必验证
+            channel.force(false);
+            index.checkpoint(channel.size());
+            index.close();
+            raf.close();
+        }
+    }
+    
+    private boolean isLive(long id) {
+        int slot = index.find(id);
+        return slot >= 0 && index.flagAt(slot) == FLAG_LIVE;
+    }
+    
+    // 读取一条完整记录，记录在映射范围内时直接从映射复制（调用方持有锁）
+    private ByteBuffer recordAt(int slot) throws IOException {
+        long position = index.offsetAt(slot);
+        int length = index.lengthAt(slot);
+        if (mapped != null && position + length <= mapped.size()) {
+            return mapped.copy(position, length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(buffer, position);
+        buffer.flip();
+        return buffer;
+    }
+    
+    // 问题在本分段中的最新修订：优先取缓存，否则按索引找到最新的存活记录并还原（调用方持有锁）
+    private Revision latestRevision(int questionId) throws IOException {
+        Revision revision = revisions.get(questionId);
+        if (revision != null) {
+            return revision;
+        }
+        if (latestIds == null) {
+            latestIds = new HashMap<>();
+            for (int slot = 0; slot < index.count(); slot++) {
+                if (index.flagAt(slot) == FLAG_LIVE && index.questionIdAt(slot) > 0) {
+                    latestIds.put(index.questionIdAt(slot), index.idAt(slot));
+                }
+            }
+        }
+        Long id = latestIds.get(questionId);
+        if (id == null) {
+            return null;
+        }
+        revision = resolve(parse(recordAt(index.find(id))));
+        revisions.put(questionId, revision);
+        return revision;
+    }
+    
+    private void remember(int questionId, Revision revision) {
+        if (latestIds != null) {
+            latestIds.put(questionId, revision.id);
+        }
+        revisions.put(questionId, revision);
+    }
+    
+    private void forgetRevisions() {
+        latestIds = null;
+        revisions.clear();
+    }
+    
+    // 还原记录的完整思考内容，链上遇到缓存的最新修订时从它开始应用差异（调用方持有锁）
+    private Revision resolve(Record record) throws IOException {
+        Revision cached = revisions.get(record.questionId);
+        return resolve(record, id -> {
+            int slot = index.find(id);
+            return slot >= 0 ? parse(recordAt(slot)) : null;
+        }, cached);
+    }
+    
+    // 沿修订链向前找到完整内容（或缓存的修订），再依次应用链上的差异
+    static Revision resolve(Record record, RecordReader reader, Revision cached) throws IOException {
+        ArrayDeque<byte[]> deltas = new ArrayDeque<>();
+        Record current = record;
+        byte[] answer = null;
+        int depth = 0;
+        while (current.baseId != 0) {
+            deltas.push(current.answer);
+            if (cached != null && current.baseId == cached.id) {
+                answer = cached.answer;
+                depth = cached.depth;
+                break;
+            }
+            long baseId = current.baseId;
+            current = reader.read(baseId);
+            if (current == null || deltas.size() > KEYFRAME_INTERVAL * 4) {
+                throw new IOException("历史记录修订链已损坏，记录ID: " + record.id + "，缺少修订: " + baseId);
+            }
+        }
+        if (answer == null) {
+            answer = current.answer;
+        }
+        depth += deltas.size();
+        while (!deltas.isEmpty()) {
+            answer = AnswerDelta.apply(answer, deltas.pop());
+        }
+        return new Revision(record.id, answer, depth);
+    }
+    
+    // 释放内存映射：Windows下被映射的文件不能截断或替换。仍持有旧映射的懒加载条目会改为按ID读取
+    private void releaseMapping() {
+        if (mapped != null) {
+            mapped.close();
+            mapped = null;
+        }
+    }
+    
+    private void maybeScheduleCompaction() throws IOException {
+        long total = channel.size() - HEADER_SIZE;
+        long dead = total - index.liveBytes();
+        if (compactionScheduled || compactor.isShutdown() || dead < compactionMinBytes || dead < total * compactionThreshold) {
+            return;
+        }
+        compactionScheduled = true;
+        compactor.execute(() -> {
+            try {
+                long reclaimed = compact();
+                LongConsumer listener;
+                synchronized (this) {
+                    listener = compactionListener;
+                }
+                if (reclaimed > 0 && listener != null) {
+                    listener.accept(reclaimed);
+                }
+            } catch (IOException e) {
+                System.err.println("整理历史记录日志失败: " + e.getMessage());
+            } finally {
+                synchronized (this) {
+                    compactionScheduled = false;
+                }
+            }
+        });
+    }
+    
+    // 把存活记录复制到新文件并原子替换旧日志，返回回收的字节数
+    // 复制存活记录时不持有锁，只在最后复制整理期间新写入的尾部并替换文件时加锁
+    // 上一修订已被删除的差异记录会被丢弃的字节所依赖，改写为完整内容，其余记录原样复制
+    long compact() throws IOException {
+        long snapshotEnd;
+        FileChannel source;
+        int slots;
+        long[] slotIds;
+        long[] slotOffsets;
+        int[] slotLengths;
+        byte[] slotFlags;
+        long[] ids;
+        long[] offsets;
+        int[] lengths;
+        int[] questionIds;
+        long[] baseIds;
+        int liveSlots = 0;
+        synchronized (this) {
+            snapshotEnd = channel.size();
+            source = channel;
+            slots = index.count();
+            slotIds = new long[slots];
+            slotOffsets = new long[slots];
+            slotLengths = new int[slots];
+            slotFlags = new byte[slots];
+            ids = new long[index.liveCount()];
+            offsets = new long[ids.length];
+            lengths = new int[ids.length];
+            questionIds = new int[ids.length];
+            baseIds = new long[ids.length];
+            for (int slot = 0; slot < slots; slot++) {
+                slotIds[slot] = index.idAt(slot);
+                slotOffsets[slot] = index.offsetAt(slot);
+                slotLengths[slot] = index.lengthAt(slot);
+                slotFlags[slot] = index.flagAt(slot);
+                if (index.flagAt(slot) == FLAG_LIVE) {
+                    ids[liveSlots] = index.idAt(slot);
+                    offsets[liveSlots] = index.offsetAt(slot);
+                    lengths[liveSlots] = index.lengthAt(slot);
+                    questionIds[liveSlots] = index.questionIdAt(slot);
+                    baseIds[liveSlots] = index.baseIdAt(slot);
+                    liveSlots++;
+                }
+            }
+        }
+        // 快照中的记录不会再被改写，不加锁按位置读取；已删除但仍被修订链引用的记录也能读到
+        RecordReader snapshot = id -> {
+            int slot = Arrays.binarySearch(slotIds, 0, slots, id);
+            if (slot < 0) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(slotLengths[slot]);
+            while (buffer.hasRemaining()) {
+                if (source.read(buffer, slotOffsets[slot] + buffer.position()) < 0) {
+                    throw new EOFException("历史记录日志在整理时被截断");
+                }
+            }
+            buffer.flip();
+            return parse(buffer);
+        };
+        
+        File compactFile = new File(file.getPath() + ".compact");
+        FileChannel out = FileChannel.open(compactFile.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        boolean swapped = false;
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            while (header.hasRemaining()) {
+                out.write(header);
+            }
+            long[] newOffsets = new long[liveSlots];
+            for (int i = 0; i < liveSlots; i++) {
+                newOffsets[i] = out.position();
+                int base = baseIds[i] != 0 ? Arrays.binarySearch(slotIds, 0, slots, baseIds[i]) : -1;
+                if (baseIds[i] != 0 && (base < 0 || slotFlags[base] != FLAG_LIVE)) {
+                    Record record = snapshot.read(ids[i]);
+                    Revision revision = resolve(record, snapshot, null);
+                    ByteBuffer keyframe = encodeRecord(ids[i], FLAG_LIVE, questionIds[i], revision.answer, record.timestamp);
+                    lengths[i] = keyframe.remaining();
+                    baseIds[i] = 0;
+                    while (keyframe.hasRemaining()) {
+                        out.write(keyframe);
+                    }
+                } else {
+                    transferFully(offsets[i], lengths[i], out);
+                }
+            }
+            
+            synchronized (this) {
+                // 整理期间追加的记录和删除标记原样复制，之后重放即可
+                long end = channel.size();
+                long tailStart = out.position();
+                transferFully(snapshotEnd, end - snapshotEnd, out);
+                out.force(true);
+                long newSize = out.position();
+                out.close();
+                
+                // 先让索引失效，替换中途崩溃时下次打开会从头重建
+                index.reset(HEADER_SIZE);
+                releaseMapping();
+                raf.close();
+                try {
+                    Files.move(compactFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    swapped = true;
+                } finally {
+                    raf = new RandomAccessFile(file, "rw");
+                    channel = raf.getChannel();
+                }
+                index.replaceAll(ids, newOffsets, lengths, questionIds, baseIds, liveSlots, tailStart);
+                scan(tailStart);
+                index.checkpoint(newSize);
+                
+                long reclaimed = end - newSize;
+                System.out.println("历史记录日志整理完成，保留 " + liveSlots + " 条记录，回收 " + reclaimed + " 字节");
+                return reclaimed;
+            }
+        } finally {
+            if (out.isOpen()) {
+                out.close();
+            }
+            if (!swapped) {
+                compactFile.delete();
+                synchronized (this) {
+                    // 替换失败时索引已被清空，按现有文件重建
+                    if (index.count() == 0 && channel.size() > HEADER_SIZE) {
+                        scan(HEADER_SIZE);
+                    }
+                }
+            }
+        }
+    }
+    
+    private void transferFully(long position, long count, FileChannel target) throws IOException {
+        while (count > 0) {
+            long transferred = channel.transferTo(position, count, target);
+            if (transferred <= 0) {
+                throw new EOFException("历史记录日志在整理时被截断");
+            }
+            position += transferred;
+            count -= transferred;
+        }
+    }
+    
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        channel.truncate(0);
+        writeFully(header, 0);
+    }
+    
+    // 恢复扫描：从position开始逐条验证记录长度和CRC32C（早期版本的记录没有CRC，只验证长度），
+    // 截断第一条不完整或校验失败的记录及其后的所有字节，返回验证通过的日志长度
+    private long recover(long position) throws IOException {
+        long end = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        String failure = null;
+        while (position < end) {
+            if (position + 4 > end) {
+                failure = "记录长度不完整";
+                break;
+            }
+            buffer.clear().limit(4);
+            readFully(buffer, position);
+            int length = buffer.getInt(0);
+            if (length < 9 || position + 4 + length > end) {
+                failure = "记录长度无效或记录不完整";
+                break;
+            }
+            if (buffer.capacity() < 4 + length) {
+                buffer = ByteBuffer.allocate(Math.max(4 + length, buffer.capacity() * 2));
+            }
+            buffer.clear().limit(4 + length);
+            readFully(buffer, position);
+            byte flag = buffer.get(4);
+            if ((flag & FLAG_CHECKSUM) != 0 && (length < 9 + CHECKSUM_SIZE || !checksumValid(buffer.array(), 4 + length))) {
+                failure = "CRC32C校验失败，记录ID: " + buffer.getLong(5);
+                break;
+            }
+            position += 4 + length;
+        }
+        if (position < end) {
+            System.err.println("历史记录日志 " + file.getName() + " 在偏移 " + position + " 处" + failure
+                + "，已截断并丢弃 " + (end - position) + " 字节");
+            channel.truncate(position);
+        }
+        return position;
+    }
+    
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("历史记录日志在读取时被截断");
+            }
+        }
+    }
+    
+    // 去掉校验位和差异位后的记录类型
+    static byte kind(byte flag) {
+        return (byte) (flag & ~(FLAG_CHECKSUM | FLAG_DELTA));
+    }
+    
+    // 在缓冲区已写入的内容之后追加CRC32C并翻转为可读
+    private static ByteBuffer seal(ByteBuffer buffer) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        return buffer;
+    }
+    
+    // record的前length个字节是一条完整记录，最后4个字节是其余字节的CRC32C
+    static boolean checksumValid(byte[] record, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(record, 0, length - CHECKSUM_SIZE);
+        return (int) crc.getValue() == ByteBuffer.wrap(record, length - CHECKSUM_SIZE, CHECKSUM_SIZE).getInt();
+    }
+    
+    private void checkHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException("不是有效的历史记录日志: " + file.getName());
+        }
+        int version = header.getInt();
+        if (version > VERSION) {
+            throw new IOException("不支持的历史记录日志版本: " + version);
+        }
+        if (version < VERSION) {
+            // 旧版本的记录仍可直接读取，只更新版本号，防止旧程序读到它不认识的新记录
+            ByteBuffer upgraded = ByteBuffer.allocate(4);
+            upgraded.putInt(VERSION).flip();
+            writeFully(upgraded, 4);
+            System.out.println("历史记录日志已升级到版本 " + VERSION);
+        }
+    }
+    
+    // 从指定位置开始扫描记录头并补入索引；只读取每条记录的前25个字节（到问题ID和上一修订的ID为止）
+    private void scan(long position) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(25);
+        long end = channel.size();
+        while (position + 13 <= end) {
+            head.clear().limit((int) Math.min(25, end - position));
+            readFully(head, position);
+            head.flip();
+            int length = head.getInt();
+            byte raw = head.get();
+            byte flag = kind(raw);
+            long id = head.getLong();
+            if (length < 9 || position + 4 + length > end) {
+                break;
+            }
+            int questionId = 0;
+            long baseId = 0;
+            if (flag == FLAG_LIVE && length >= 13) {
+                int questionLength = head.getInt();
+                questionId = questionLength < 0 ? -questionLength : 0;
+                if ((raw & FLAG_DELTA) != 0 && length >= 21) {
+                    baseId = head.getLong();
+                }
+            }
+            if (flag == FLAG_TOMBSTONE) {
+                // 删除标记：把目标记录标记为已删除
+                int slot = index.find(id);
+                if (slot >= 0) {
+                    index.markDeleted(slot);
+                }
+                index.advance(position + 4 + length);
+            } else {
+                index.add(id, position, 4 + length, flag, questionId, baseId, position + 4 + length);
+                nextId = Math.max(nextId, id + 1);
+            }
+            position += 4 + length;
+        }
+        if (position < end) {
+            System.err.println("历史记录日志末尾记录不完整，已截断: " + (end - position) + " 字节");
+            channel.truncate(position);
+        }
+    }
+    
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+    
+    // 问题以字典ID保存、末尾带CRC32C的记录
+    static ByteBuffer encodeRecord(long id, byte flag, int questionId, byte[] answer, String timestamp) {
+        byte[] t = timestamp.getBytes(StandardCharsets.UTF_8);
+        int length = 1 + 8 + 4 + 4 + answer.length + 4 + t.length + CHECKSUM_SIZE;
+        ByteBuffer buffer = ByteBuffer.allocate(4 + length);
+        buffer.putInt(length).put((byte) (flag | FLAG_CHECKSUM)).putLong(id);
+        buffer.putInt(-questionId);
+        buffer.putInt(answer.length).put(answer);
+        buffer.putInt(t.length).put(t);
+        return seal(buffer);
+    }
+    
+    // 思考内容保存为相对上一修订（baseId）差异的记录
+    static ByteBuffer encodeDelta(long id, int questionId, long baseId, byte[] delta, String timestamp) {
+        byte[] t = timestamp.getBytes(StandardCharsets.UTF_8);
+        int length = 1 + 8 + 4 + 8 + 4 + delta.length + 4 + t.length + CHECKSUM_SIZE;
+        ByteBuffer buffer = ByteBuffer.allocate(4 + length);
+        buffer.putInt(length).put((byte) (FLAG_LIVE | FLAG_DELTA | FLAG_CHECKSUM)).putLong(id);
+        buffer.putInt(-questionId).putLong(baseId);
+        buffer.putInt(delta.length).put(delta);
+        buffer.putInt(t.length).put(t);
+        return seal(buffer);
+    }
+    
+    // 解析一条完整的存活记录；差异记录的answer是相对baseId的差异，而不是思考内容
+    static Record parse(ByteBuffer buffer) {
+        Record record = new Record();
+        buffer.getInt();
+        record.flag = buffer.get();
+        record.id = buffer.getLong();
+        int questionLength = buffer.getInt(buffer.position());
+        if (questionLength < 0) {
+            buffer.getInt();
+            record.questionId = -questionLength;
+        } else {
+            record.question = readString(buffer);
+        }
+        if ((record.flag & FLAG_DELTA) != 0) {
+            record.baseId = buffer.getLong();
+        }
+        record.answer = new byte[buffer.getInt()];
+        buffer.get(record.answer);
+        record.timestamp = readString(buffer);
+        return record;
+    }
+    
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+    
+    static class Record {
+        long id;
+        byte flag;
+        int questionId;
+        String question;
+        long baseId;
+        byte[] answer;
+        String timestamp;
+    }
+    
+    // 一个修订的完整思考内容，depth是还原它需要应用的差异数
+    static class Revision {
+        final long id;
+        final byte[] answer;
+        final int depth;
+        
+        Revision(long id, byte[] answer, int depth) {
+            this.id = id;
+            this.answer = answer;
+            this.depth = depth;
+        }
+    }
+    
+    interface RecordReader {
+        Record read(long id) throws IOException;
+    }
+    
+    interface RecordSink {
+        void accept(long id, int questionId, ByteBuffer record) throws IOException;
+    }
+    
+    // 把旧版“问题：/我的思考：/记录时间：/---”文本格式迁移为日志，原文件改名保留为 .bak
+    static void migrateLegacy(File legacyFile, File journalFile) throws IOException {
+        ArrayList<HistoryEntry> entries = parseLegacy(legacyFile);
+        File tempFile = new File(journalFile.getPath() + ".tmp");
+        QuestionDictionary dictionary = QuestionDictionary.open(dictionaryFile(journalFile));
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            long id = 1;
+            for (HistoryEntry entry : entries) {
+                int questionId = dictionary.intern(entry.getQuestion());
+                ByteBuffer record = encodeRecord(id++, FLAG_LIVE, questionId, entry.getAnswer().getBytes(StandardCharsets.UTF_8), entry.getTimestamp());
+                out.write(record.array(), 0, record.limit());
+            }
+        } finally {
+            dictionary.force();
+            dictionary.close();
+        }
+        Files.move(tempFile.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(legacyFile.toPath(), new File(legacyFile.getPath() + ".bak").toPath(), StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("旧版历史记录已迁移到日志格式，共 " + entries.size() + " 条记录");
+    }
+    
+    // 解析旧版文本格式，保留多行的问题和思考内容
+    static ArrayList<HistoryEntry> parseLegacy(File legacyFile) throws IOException {
+        ArrayList<HistoryEntry> entries = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(legacyFile), StandardCharsets.UTF_8))) {
+            StringBuilder currentQuestion = new StringBuilder();
+            StringBuilder currentAnswer = new StringBuilder();
+            String currentTimestamp = "";
+            boolean readingQuestion = false;
+            boolean readingAnswer = false;
+            
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("问题：")) {
+                    currentQuestion = new StringBuilder(line.substring(3).trim());
+                    readingQuestion = true;
+                    readingAnswer = false;
+                } else if (line.startsWith("我的思考：")) {
+                    currentAnswer = new StringBuilder(line.substring(5).trim());
+                    readingQuestion = false;
+                    readingAnswer = true;
+                } else if (line.startsWith("记录时间：")) {
+                    currentTimestamp = line.substring(5).trim();
+                    readingQuestion = false;
+                    readingAnswer = false;
+                } else if (line.equals("---")) {
+                    if (currentQuestion.length() > 0) {
+                        entries.add(new HistoryEntry(currentQuestion.toString(), currentAnswer.toString(), currentTimestamp));
+                    }
+                    currentQuestion = new StringBuilder();
+                    currentAnswer = new StringBuilder();
+                    currentTimestamp = "";
+                    readingQuestion = false;
+                    readingAnswer = false;
+                } else if (readingQuestion) {
+                    currentQuestion.append("\n").append(line);
+                } else if (readingAnswer) {
+                    currentAnswer.append("\n").append(line);
+                }
+            }
+            
+            // 处理文件末尾可能没有分隔符的情况
+            if (currentQuestion.length() > 0) {
+                entries.add(new HistoryEntry(currentQuestion.toString(), currentAnswer.toString(), currentTimestamp));
+            }
+        }
+        return entries;
+    }
+}
+
+// 历史记录日志的内存映射读取器（外部内存API）
+// 把日志映射为MemorySegment，直接在映射内存中读取记录头来扫描记录边界，扫描过程不创建任何字符串；
+// 问题、思考和时间只在记录真正显示时才从映射中解码。映射由日志持有，所有访问都在日志锁内进行
+class MappedHistoryReader implements HistoryEntry.Source {
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    
+    private final HistoryJournal journal;
+    private final Arena arena;
+    private final MemorySegment segment;
+    private boolean closed;
+    
+    MappedHistoryReader(HistoryJournal journal, FileChannel channel, long size) throws IOException {
+        this.journal = journal;
+        this.arena = Arena.ofShared();
+        try {
+            this.segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, size, arena);
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+    
+    long size() {
+        return segment.byteSize();
+    }
+    
+    // 从指定位置扫描记录边界，为每条存活记录创建只含ID和偏移的懒加载条目
+    ArrayList<HistoryEntry> scan(long position, int expected, LongPredicate isLive) {
+        ArrayList<HistoryEntry> entries = new ArrayList<>(expected);
+        long end = segment.byteSize();
+        while (position + 13 <= end) {
+            int length = segment.get(INT, position);
+            if (length < 9 || position + 4 + length > end) {
+                break;
+            }
+            byte flag = HistoryJournal.kind(segment.get(ValueLayout.JAVA_BYTE, position + 4));
+            long id = segment.get(LONG, position + 5);
+            if (flag == HistoryJournal.FLAG_LIVE && isLive.test(id)) {
+                // 问题长度为负数时是问题字典的ID，不必解码就能按问题归类
+                int questionLength = segment.get(INT, position + 13);
+                entries.add(new HistoryEntry(id, questionLength < 0 ? -questionLength : 0, this, position));
+            }
+            position += 4 + length;
+        }
+        return entries;
+    }
+    
+    // 懒加载条目第一次显示时调用：映射仍有效时直接解码，已释放（清空或整理后）则按ID重新读取
+    @Override
+    public HistoryEntry summary(long id, long offset) {
+        synchronized (journal) {
+            if (!closed) {
+                return decode(offset);
+            }
+        }
+        try {
+            return journal.read(id);
+        } catch (IOException e) {
+            System.err.println("读取历史记录失败: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    // 解码指定偏移处记录的问题和时间，跳过思考内容（调用方持有日志锁）
+    HistoryEntry decode(long offset) {
+        byte flag = segment.get(ValueLayout.JAVA_BYTE, offset + 4);
+        long id = segment.get(LONG, offset + 5);
+        long position = offset + 13;
+        int questionLength = segment.get(INT, position);
+        int questionId = questionLength < 0 ? -questionLength : 0;
+        String question = questionId > 0 ? journal.questionText(questionId) : decodeString(position);
+        position += 4 + Math.max(questionLength, 0);
+        if ((flag & HistoryJournal.FLAG_DELTA) != 0) {
+            position += 8;
+        }
+        position += 4 + segment.get(INT, position);
+        String timestamp = decodeString(position);
+        return new HistoryEntry(id, questionId, question, null, timestamp);
+    }
+    
+    // 把一条记录从映射复制到堆缓冲区（调用方持有日志锁）
+    ByteBuffer copy(long position, int length) {
+        byte[] bytes = new byte[length];
+        MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, position, bytes, 0, length);
+        return ByteBuffer.wrap(bytes);
+    }
+    
+    // 释放映射（调用方持有日志锁）
+    void close() {
+        if (!closed) {
+            closed = true;
+            arena.close();
+        }
+    }
+    
+    private String decodeString(long position) {
+        int length = segment.get(INT, position);
+        byte[] bytes = new byte[length];
+        MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, position + 4, bytes, 0, length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
+
+// 思考内容的差异编码：把新修订表示为对上一修订UTF-8字节的复制和新插入的字节
+// 格式: [varint 新内容长度] 之后是若干操作，[0][varint 偏移][varint 长度] 复制上一修订的一段，[1][varint 长度][字节] 插入新字节
+// 编码时为上一修订的每个位置建立16字节块的哈希表，在新内容中找到匹配后向前后扩展，只修改了几处的回答差异很小
+class AnswerDelta {
+    private static final int BLOCK = 16;
+    private static final byte COPY = 0;
+    private static final byte INSERT = 1;
+    
+    private AnswerDelta() {
+    }
+    
+    static byte[] encode(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, target.length);
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i++) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+        int pending = 0;
+        int position = 0;
+        while (position + BLOCK <= target.length) {
+            Integer candidate = blocks.get(hash(target, position));
+            if (candidate == null || !Arrays.equals(base, candidate, candidate + BLOCK, target, position, position + BLOCK)) {
+                position++;
+                continue;
+            }
+            int from = candidate;
+            int start = position;
+            // 向前扩展到待插入的字节里，向后扩展到不再相同为止
+            while (from > 0 && start > pending && base[from - 1] == target[start - 1]) {
+                from--;
+                start--;
+            }
+            int end = position + BLOCK;
+            int baseEnd = candidate + BLOCK;
+            while (end < target.length && baseEnd < base.length && base[baseEnd] == target[end]) {
+                end++;
+                baseEnd++;
+            }
+            writeInsert(out, target, pending, start);
+            out.write(COPY);
+            writeVarint(out, from);
+            writeVarint(out, end - start);
+            pending = end;
+            position = end;
+        }
+        writeInsert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+    
+    static byte[] apply(byte[] base, byte[] delta) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(delta);
+        byte[] target;
+        try {
+            target = new byte[readVarint(in)];
+            int position = 0;
+            while (in.hasRemaining()) {
+                byte op = in.get();
+                if (op == COPY) {
+                    int offset = readVarint(in);
+                    int length = readVarint(in);
+                    System.arraycopy(base, offset, target, position, length);
+                    position += length;
+                } else if (op == INSERT) {
+                    int length = readVarint(in);
+                    in.get(target, position, length);
+                    position += length;
+                } else {
+                    throw new IOException("未知的差异操作: " + op);
+                }
+            }
+            if (position != target.length) {
+                throw new IOException("差异还原后的长度不符");
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("思考内容的差异数据已损坏", e);
+        }
+        return target;
+    }
+    
+    private static void writeInsert(ByteArrayOutputStream out, byte[] target, int from, int to) {
+        if (to > from) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+    
+    private static int hash(byte[] bytes, int offset) {
+        int hash = 1;
+        for (int i = offset; i < offset + BLOCK; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash;
+    }
+    
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+    
+    private static int readVarint(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("差异数据中的长度无效");
+    }
+}
+
+// 历史记录日志的持久化偏移索引（旁路文件）
+// 文件头: [int 魔数][int 版本][long 已索引的日志长度][long 校验点]
+// 索引项: [long 记录ID][long 偏移][int 长度][byte 标志][int 问题ID][long 上一修订的记录ID]，按记录ID递增排列，查找使用二分法
+// 校验点是最近一次fsync时的日志长度，之前的记录已经落盘并验证过
+class HistoryIndex {
+    static final int MAGIC = 0x54504958; // "TPIX"
+    static final int VERSION = 3;
+    static final int HEADER_SIZE = 24;
+    static final int SLOT_SIZE = 33;
+    
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private long[] ids = new long[256];
+    private long[] offsets = new long[256];
+    private int[] lengths = new int[256];
+    private byte[] flags = new byte[256];
+    private int[] questionIds = new int[256];
+    private long[] baseIds = new long[256];
+    private int count;
+    private int liveCount;
+    private long liveBytes;
+    private long indexedLength;
+    private long checkpoint;
+    
+    public HistoryIndex(File file) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+    }
+    
+    public File getFile() {
+        return file;
+    }
+    
+    // 从文件加载索引，文件不存在或已损坏时返回false
+    public boolean load() throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE || (size - HEADER_SIZE) % SLOT_SIZE != 0) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                return false;
+            }
+        }
+        buffer.flip();
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return false;
+        }
+        indexedLength = buffer.getLong();
+        checkpoint = buffer.getLong();
+        count = 0;
+        liveCount = 0;
+        liveBytes = 0;
+        int slots = (int) ((size - HEADER_SIZE) / SLOT_SIZE);
+        ensureCapacity(slots);
+        for (int i = 0; i < slots; i++) {
+            ids[i] = buffer.getLong();
+            offsets[i] = buffer.getLong();
+            lengths[i] = buffer.getInt();
+            flags[i] = buffer.get();
+            questionIds[i] = buffer.getInt();
+            baseIds[i] = buffer.getLong();
+            if (i > 0 && ids[i] <= ids[i - 1]) {
+                return false;
+            }
+            if (flags[i] == HistoryJournal.FLAG_LIVE) {
+                liveCount++;
+                liveBytes += lengths[i];
+            }
+            count++;
+        }
+        return true;
+    }
+    
+    // 清空索引，记录的日志长度重置为指定值
+    public void reset(long journalLength) throws IOException {
+        count = 0;
+        liveCount = 0;
+        liveBytes = 0;
+        channel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(journalLength).putLong(journalLength).flip();
+        writeFully(header, 0);
+        indexedLength = journalLength;
+        checkpoint = journalLength;
+    }
+    
+    // 追加一个索引项，并把已索引的日志长度推进到journalLength
+    public void add(long id, long offset, int length, byte flag, int questionId, long baseId, long journalLength) throws IOException {
+        ensureCapacity(count + 1);
+        ids[count] = id;
+        offsets[count] = offset;
+        lengths[count] = length;
+        flags[count] = flag;
+        questionIds[count] = questionId;
+        baseIds[count] = baseId;
+        ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+        slot.putLong(id).putLong(offset).putInt(length).put(flag).putInt(questionId).putLong(baseId).flip();
+        writeFully(slot, HEADER_SIZE + (long) count * SLOT_SIZE);
+        count++;
+        if (flag == HistoryJournal.FLAG_LIVE) {
+            liveCount++;
+            liveBytes += length;
+        }
+        advance(journalLength);
+    }
+    
+    // 用整理后的存活记录整体替换索引，一次写入
+    public void replaceAll(long[] newIds, long[] newOffsets, int[] newLengths, int[] newQuestionIds, long[] newBaseIds,
+                           int newCount, long journalLength) throws IOException {
+        ensureCapacity(newCount);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + newCount * SLOT_SIZE);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(journalLength).putLong(journalLength);
+        liveBytes = 0;
+        for (int i = 0; i < newCount; i++) {
+            ids[i] = newIds[i];
+            offsets[i] = newOffsets[i];
+            lengths[i] = newLengths[i];
+            flags[i] = HistoryJournal.FLAG_LIVE;
+            questionIds[i] = newQuestionIds[i];
+            baseIds[i] = newBaseIds[i];
+            liveBytes += newLengths[i];
+            buffer.putLong(newIds[i]).putLong(newOffsets[i]).putInt(newLengths[i]).put(HistoryJournal.FLAG_LIVE)
+                .putInt(newQuestionIds[i]).putLong(newBaseIds[i]);
+        }
+        buffer.flip();
+        channel.truncate(0);
+        writeFully(buffer, 0);
+        count = newCount;
+        liveCount = newCount;
+        indexedLength = journalLength;
+        checkpoint = journalLength;
+    }
+    
+    public void markDeleted(int slot) throws IOException {
+        if (flags[slot] == HistoryJournal.FLAG_LIVE) {
+            liveCount--;
+            liveBytes -= lengths[slot];
+        }
+        flags[slot] = HistoryJournal.FLAG_DELETED;
+        writeFully(ByteBuffer.wrap(new byte[] { HistoryJournal.FLAG_DELETED }), HEADER_SIZE + (long) slot * SLOT_SIZE + 20);
+    }
+    
+    // 二分查找记录ID对应的索引项，找不到时返回-1
+    public int find(long id) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = ids[mid];
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+    
+    public int count() {
+        return count;
+    }
+    
+    public int liveCount() {
+        return liveCount;
+    }
+    
+    public long indexedLength() {
+        return indexedLength;
+    }
+    
+    public long checkpoint() {
+        return checkpoint;
+    }
+    
+    // 记录新的校验点（调用方已fsync日志）
+    public void checkpoint(long journalLength) throws IOException {
+        checkpoint = journalLength;
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.putLong(journalLength).flip();
+        writeFully(buffer, 16);
+    }
+    
+    // 存活记录占用的字节数
+    public long liveBytes() {
+        return liveBytes;
+    }
+    
+    public long idAt(int slot) {
+        return ids[slot];
+    }
+    
+    public long offsetAt(int slot) {
+        return offsets[slot];
+    }
+    
+    public int lengthAt(int slot) {
+        return lengths[slot];
+    }
+    
+    public byte flagAt(int slot) {
+        return flags[slot];
+    }
+    
+    public int questionIdAt(int slot) {
+        return questionIds[slot];
+    }
+    
+    // 差异记录的上一修订ID，完整记录为0
+    public long baseIdAt(int slot) {
+        return baseIds[slot];
+    }
+    
+    public void close() throws IOException {
+        raf.close();
+    }
+    
+    // 把已索引的日志长度推进到journalLength（删除标记不占索引项，只推进长度）
+    public void advance(long journalLength) throws IOException {
+        indexedLength = journalLength;
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.putLong(journalLength).flip();
+        writeFully(buffer, 8);
+    }
+    
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, ids.length * 2);
+        ids = Arrays.copyOf(ids, newCapacity);
+        offsets = Arrays.copyOf(offsets, newCapacity);
+        lengths = Arrays.copyOf(lengths, newCapacity);
+        flags = Arrays.copyOf(flags, newCapacity);
+        questionIds = Arrays.copyOf(questionIds, newCapacity);
+        baseIds = Arrays.copyOf(baseIds, newCapacity);
+    }
+    
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
+
+// 问题字典：把问题文本映射为稳定的整数ID，历史记录中只保存问题ID
+// 文件头: [int 魔数][int 版本]
+// 字典项: [int 长度][问题UTF-8][int CRC32C]，ID即写入顺序（从1开始），只追加、不修改也不删除
+//         CRC覆盖长度和文本，全零的文件尾部也无法通过校验；版本1的字典项没有CRC，打开时整体改写为版本2
+// 内存中文本存放在紧凑题库里，按UTF-8字节的64位哈希查找；解码后的文本被缓存，同一问题的所有记录共享同一个String
+class QuestionDictionary {
+    static final int MAGIC = 0x54505144; // "TPQD"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 8;
+    
+    private final File file;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private final QuestionBank texts = new QuestionBank();
+    private String[] decoded = new String[256];
+    // 开放寻址哈希表：哈希 -> 问题ID（0表示空槽）
+    private long[] hashes = new long[1024];
+    private int[] ids = new int[1024];
+    
+    private QuestionDictionary(File file) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+        if (channel.size() < HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            channel.truncate(0);
+            channel.write(header, 0);
+        } else {
+            load();
+        }
+    }
+    
+    public static QuestionDictionary open(File file) throws IOException {
+        return new QuestionDictionary(file);
+    }
+    
+    public synchronized int size() {
+        return texts.size();
+    }
+    
+    // 返回问题的ID，不存在时追加到字典文件
+    public synchronized int intern(String question) throws IOException {
+        byte[] bytes = question.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(bytes, 0, bytes.length);
+        int id = find(hash, bytes);
+        if (id > 0) {
+            return id;
+        }
+        ByteBuffer entry = ByteBuffer.allocate(4 + bytes.length + 4);
+        entry.putInt(bytes.length).put(bytes).putInt(checksum(bytes, bytes.length)).flip();
+        long position = channel.size();
+        while (entry.hasRemaining()) {
+            position += channel.write(entry, position);
+        }
+        texts.add(bytes, 0, bytes.length);
+        id = texts.size();
+        insert(hash, id);
+        return id;
+    }
+    
+    // 只查找不追加，不存在时返回0
+    public synchronized int lookup(String question) {
+        byte[] bytes = question.getBytes(StandardCharsets.UTF_8);
+        return find(hash(bytes, 0, bytes.length), bytes);
+    }
+    
+    // 按ID取得问题文本，未知ID返回null
+    public synchronized String text(int id) {
+        if (id <= 0 || id > texts.size()) {
+            return null;
+        }
+        if (id >= decoded.length) {
+            decoded = Arrays.copyOf(decoded, Math.max(id + 1, decoded.length * 2));
+        }
+        String text = decoded[id];
+        if (text == null) {
+            text = texts.get(id - 1);
+            decoded[id] = text;
+        }
+        return text;
+    }
+    
+    public synchronized void force() throws IOException {
+        channel.force(false);
+    }
+    
+    public synchronized void close() throws IOException {
+        raf.close();
+    }
+    
+    // 读取所有字典项，从第一条不完整或校验失败的字典项起截断
+    private void load() throws IOException {
+        long end = channel.size();
+        long position = HEADER_SIZE;
+        int version;
+        String failure = "字典项不完整";
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("不是有效的问题字典: " + file.getName());
+            }
+            version = in.readInt();
+            if (version > VERSION) {
+                throw new IOException("不支持的问题字典版本: " + version);
+            }
+            int checksumSize = version >= 2 ? 4 : 0;
+            byte[] buffer = new byte[256];
+            while (position + 4 <= end) {
+                int length = in.readInt();
+                if (length < 0 || position + 4 + length + checksumSize > end) {
+                    break;
+                }
+                if (length > buffer.length) {
+                    buffer = new byte[Math.max(length, buffer.length * 2)];
+                }
+                in.readFully(buffer, 0, length);
+                if (checksumSize > 0 && in.readInt() != checksum(buffer, length)) {
+                    failure = "CRC32C校验失败";
+                    break;
+                }
+                texts.add(buffer, 0, length);
+                insert(hash(buffer, 0, length), texts.size());
+                position += 4 + length + checksumSize;
+            }
+        }
+        if (position < end) {
+            // 截断处之后的问题ID不再有效，引用它们的历史记录显示为空问题
+            System.err.println("问题字典在偏移 " + position + " 处" + failure + "，已截断并丢弃 " + (end - position) + " 字节（第 "
+                + (texts.size() + 1) + " 个问题起）");
+            channel.truncate(position);
+        }
+        if (version < VERSION) {
+            rewrite();
+        }
+    }
+    
+    // 按当前版本格式重写整个字典文件，问题顺序即ID，重写后不变
+    private void rewrite() throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(tempFile);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (int i = 0; i < texts.size(); i++) {
+                byte[] bytes = texts.get(i).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                out.writeInt(checksum(bytes, bytes.length));
+            }
+            out.flush();
+            output.getFD().sync();
+        }
+        raf.close();
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        System.out.println("问题字典已升级到版本 " + VERSION);
+    }
+    
+    // 字典项的CRC32C，覆盖长度字段和文本
+    private static int checksum(byte[] bytes, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(ByteBuffer.allocate(4).putInt(length).flip());
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+    
+    private int find(long hash, byte[] bytes) {
+        int mask = hashes.length - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (ids[slot] != 0) {
+            if (hashes[slot] == hash && texts.bytesEqual(ids[slot] - 1, bytes)) {
+                return ids[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return 0;
+    }
+    
+    private void insert(long hash, int id) {
+        if ((texts.size() + 1) * 2 > hashes.length) {
+            long[] oldHashes = hashes;
+            int[] oldIds = ids;
+            hashes = new long[oldHashes.length * 2];
+            ids = new int[oldIds.length * 2];
+            for (int i = 0; i < oldIds.length; i++) {
+                if (oldIds[i] != 0) {
+                    place(oldHashes[i], oldIds[i]);
+                }
+            }
+        }
+        place(hash, id);
+    }
+    
+    private void place(long hash, int id) {
+        int mask = hashes.length - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (ids[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        hashes[slot] = hash;
+        ids[slot] = id;
+    }
+    
+    private static long hash(byte[] bytes, int offset, int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++) {
+            h = (h ^ (bytes[i] & 0xff)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
+
+// 压缩的冷分段：超过一定月数的分段整理成只读的压缩文件（如 questions_data.journal.2026-01.z），原日志删除
+// 文件:   [int 魔数][int 版本]，之后是若干压缩块，每块是约64KB连续的存活记录（格式同HistoryJournal），用Deflater整体压缩
+// 目录:   [int 块数]，每块 [long 偏移][int 压缩长度][int 原始长度]；[int 记录数]，每条 [long 记录ID][int 问题ID][int 块号][int 块内偏移]
+//         目录压缩后放在所有块之后
+// 文件尾: [long 起始ID][long 下一个ID][long 目录偏移][int 目录压缩长度][int 目录原始长度][int 目录CRC32C][int 魔数]
+// 打开时只读取目录，记录所在的块在显示或查找到它时才解压，最近解压的几个块被缓存；
+// 文件写好后不再改写，删除的记录ID追加到旁路文件 .del 中
+class ColdHistorySegment implements HistoryEntry.Source {
+    static final int MAGIC = 0x5450485A; // "TPHZ"
+    static final int VERSION = 1;
+    private static final int TRAILER_SIZE = 8 + 8 + 8 + 4 + 4 + 4 + 4;
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final int BLOCK_CACHE_SIZE = 4;
+    
+    private final File file;
+    private final QuestionDictionary dictionary;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private RandomAccessFile deletedFile;
+    private final HashSet<Long> deleted = new HashSet<>();
+    private long firstId;
+    private long nextId;
+    private long[] blockOffsets;
+    private int[] blockLengths;
+    private int[] blockSizes;
+    private long[] ids;
+    private int[] questionIds;
+    private int[] recordBlocks;
+    private int[] recordOffsets;
+    // 最近解压的块，按访问顺序淘汰
+    private final LinkedHashMap<Integer, byte[]> blocks = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+            return size() > BLOCK_CACHE_SIZE;
+        }
+    };
+    
+    private ColdHistorySegment(File file, QuestionDictionary dictionary) throws IOException {
+        this.file = file;
+        this.dictionary = dictionary;
+        this.raf = new RandomAccessFile(file, "r");
+        this.channel = raf.getChannel();
+    }
+    
+    public static ColdHistorySegment open(File file, QuestionDictionary dictionary) throws IOException {
+        ColdHistorySegment segment = new ColdHistorySegment(file, dictionary);
+        try {
+            segment.load();
+            segment.loadDeleted();
+        } catch (IOException e) {
+            segment.close();
+            throw e;
+        }
+        return segment;
+    }
+    
+    // 把分段日志的存活记录压缩写入target：先写临时文件并同步到磁盘，再原子替换
+    static void compress(HistoryJournal journal, File target) throws IOException {
+        File tempFile = new File(target.getPath() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tempFile);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_SIZE * 2);
+            ByteArrayOutputStream blockTable = new ByteArrayOutputStream();
+            ByteArrayOutputStream directory = new ByteArrayOutputStream();
+            DataOutputStream blockOut = new DataOutputStream(blockTable);
+            DataOutputStream directoryOut = new DataOutputStream(directory);
+            int[] counts = new int[2];
+            journal.exportLive((id, questionId, record) -> {
+                if (block.size() >= BLOCK_SIZE) {
+                    writeBlock(out, block, blockOut);
+                    counts[0]++;
+                }
+                directoryOut.writeLong(id);
+                directoryOut.writeInt(questionId);
+                directoryOut.writeInt(counts[0]);
+                directoryOut.writeInt(block.size());
+                block.write(record.array(), record.arrayOffset() + record.position(), record.remaining());
+                counts[1]++;
+            });
+            if (block.size() > 0) {
+                writeBlock(out, block, blockOut);
+                counts[0]++;
+            }
+            
+            ByteArrayOutputStream catalog = new ByteArrayOutputStream();
+            DataOutputStream catalogOut = new DataOutputStream(catalog);
+            catalogOut.writeInt(counts[0]);
+            blockTable.writeTo(catalogOut);
+            catalogOut.writeInt(counts[1]);
+            directory.writeTo(catalogOut);
+            byte[] raw = catalog.toByteArray();
+            byte[] compressed = deflate(raw, raw.length);
+            CRC32C crc = new CRC32C();
+            crc.update(compressed);
+            long catalogOffset = out.size();
+            out.write(compressed);
+            out.writeLong(journal.firstId());
+            out.writeLong(journal.nextId());
+            out.writeLong(catalogOffset);
+            out.writeInt(compressed.length);
+            out.writeInt(raw.length);
+            out.writeInt((int) crc.getValue());
+            out.writeInt(MAGIC);
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    private static void writeBlock(DataOutputStream out, ByteArrayOutputStream block, DataOutputStream blockTable) throws IOException {
+        byte[] compressed = deflate(block.toByteArray(), block.size());
+        blockTable.writeLong(out.size());
+        blockTable.writeInt(compressed.length);
+        blockTable.writeInt(block.size());
+        out.write(compressed);
+        block.reset();
+    }
+    
+    static File deletedFile(File file) {
+        return new File(file.getPath() + ".del");
+    }
+    
+    public File getFile() {
+        return file;
+    }
+    
+    public synchronized long firstId() {
+        return firstId;
+    }
+    
+    public synchronized long nextId() {
+        return nextId;
+    }
+    
+    // 按ID读取单条完整记录，只解压记录所在的块（差异记录还需要修订链上的块）
+    public synchronized HistoryEntry read(long id) throws IOException {
+        int slot = Arrays.binarySearch(ids, id);
+        if (slot < 0 || deleted.contains(id)) {
+            return null;
+        }
+        HistoryJournal.Record record = HistoryJournal.parse(recordAt(slot));
+        byte[] answer = record.baseId != 0 ? HistoryJournal.resolve(record, this::record, null).answer : record.answer;
+        return new HistoryEntry(id, record.questionId, questionText(record), new String(answer, StandardCharsets.UTF_8), record.timestamp);
+    }
+    
+    // 按目录中的问题ID找出问题的所有记录，只解压用到的块
+    public synchronized ArrayList<HistoryEntry> findByQuestion(int questionId) throws IOException {
+        ArrayList<HistoryEntry> found = new ArrayList<>();
+        for (int slot = 0; slot < ids.length; slot++) {
+            if (questionIds[slot] == questionId && !deleted.contains(ids[slot])) {
+                found.add(read(ids[slot]));
+            }
+        }
+        return found;
+    }
+    
+    // 删除只记下记录ID，压缩文件不变
+    public synchronized boolean delete(long id) throws IOException {
+        if (Arrays.binarySearch(ids, id) < 0 || !deleted.add(id)) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.putLong(id).flip();
+        FileChannel deletedChannel = deletedFile.getChannel();
+        long position = deletedChannel.size();
+        while (buffer.hasRemaining()) {
+            position += deletedChannel.write(buffer, position);
+        }
+        return true;
+    }
+    
+    public synchronized void force() throws IOException {
+        deletedFile.getChannel().force(false);
+    }
+    
+    // 列出所有存活记录的懒加载条目：只用到目录，不解压任何块
+    public synchronized ArrayList<HistoryEntry> readSummaries() {
+        ArrayList<HistoryEntry> entries = new ArrayList<>(ids.length - deleted.size());
+        for (int slot = 0; slot < ids.length; slot++) {
+            if (!deleted.contains(ids[slot])) {
+                entries.add(new HistoryEntry(ids[slot], questionIds[slot], this, slot));
+            }
+        }
+        return entries;
+    }
+    
+    // 懒加载条目第一次显示时调用，解压记录所在的块
+    @Override
+    public synchronized HistoryEntry summary(long id, long position) {
+        try {
+            HistoryJournal.Record record = HistoryJournal.parse(recordAt((int) position));
+            return new HistoryEntry(id, record.questionId, questionText(record), null, record.timestamp);
+        } catch (IOException e) {
+            System.err.println("读取历史记录失败: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    public synchronized void close() throws IOException {
+        blocks.clear();
+        if (deletedFile != null) {
+            deletedFile.close();
+        }
+        raf.close();
+    }
+    
+    private String questionText(HistoryJournal.Record record) {
+        if (record.questionId == 0) {
+            return record.question;
+        }
+        String text = dictionary.text(record.questionId);
+        return text != null ? text : "";
+    }
+    
+    // 修订链上的记录，已删除的记录仍保存在文件中
+    private HistoryJournal.Record record(long id) throws IOException {
+        int slot = Arrays.binarySearch(ids, id);
+        return slot >= 0 ? HistoryJournal.parse(recordAt(slot)) : null;
+    }
+    
+    private ByteBuffer recordAt(int slot) throws IOException {
+        byte[] block = block(recordBlocks[slot]);
+        return ByteBuffer.wrap(block, recordOffsets[slot], block.length - recordOffsets[slot]);
+    }
+    
+    private byte[] block(int number) throws IOException {
+        byte[] block = blocks.get(number);
+        if (block == null) {
+            block = inflate(readAt(blockOffsets[number], blockLengths[number]), blockSizes[number]);
+            blocks.put(number, block);
+        }
+        return block;
+    }
+    
+    private void load() throws IOException {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.wrap(readAt(0, 8));
+        if (size < 8 + TRAILER_SIZE || header.getInt() != MAGIC) {
+            throw new IOException("不是有效的冷分段文件: " + file.getName());
+        }
+        int version = header.getInt();
+        if (version > VERSION) {
+            throw new IOException("不支持的冷分段文件版本: " + version);
+        }
+        ByteBuffer trailer = ByteBuffer.wrap(readAt(size - TRAILER_SIZE, TRAILER_SIZE));
+        firstId = trailer.getLong();
+        nextId = trailer.getLong();
+        long catalogOffset = trailer.getLong();
+        int catalogLength = trailer.getInt();
+        int catalogSize = trailer.getInt();
+        int catalogCrc = trailer.getInt();
+        if (trailer.getInt() != MAGIC || catalogOffset < 8 || catalogOffset + catalogLength > size - TRAILER_SIZE) {
+            throw new IOException("冷分段文件不完整: " + file.getName());
+        }
+        byte[] compressed = readAt(catalogOffset, catalogLength);
+        CRC32C crc = new CRC32C();
+        crc.update(compressed);
+        if ((int) crc.getValue() != catalogCrc) {
+            throw new IOException("冷分段文件的目录校验失败: " + file.getName());
+        }
+        ByteBuffer catalog = ByteBuffer.wrap(inflate(compressed, catalogSize));
+        int blockCount = catalog.getInt();
+        blockOffsets = new long[blockCount];
+        blockLengths = new int[blockCount];
+        blockSizes = new int[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            blockOffsets[i] = catalog.getLong();
+            blockLengths[i] = catalog.getInt();
+            blockSizes[i] = catalog.getInt();
+        }
+        int recordCount = catalog.getInt();
+        ids = new long[recordCount];
+        questionIds = new int[recordCount];
+        recordBlocks = new int[recordCount];
+        recordOffsets = new int[recordCount];
+        for (int i = 0; i < recordCount; i++) {
+            ids[i] = catalog.getLong();
+            questionIds[i] = catalog.getInt();
+            recordBlocks[i] = catalog.getInt();
+            recordOffsets[i] = catalog.getInt();
+        }
+    }
+    
+    // 读取删除记录；末尾不足8字节的部分是写入中断留下的，截掉
+    private void loadDeleted() throws IOException {
+        deletedFile = new RandomAccessFile(deletedFile(file), "rw");
+        FileChannel deletedChannel = deletedFile.getChannel();
+        long size = deletedChannel.size() / 8 * 8;
+        if (size < deletedChannel.size()) {
+            deletedChannel.truncate(size);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining()) {
+            if (deletedChannel.read(buffer, buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        while (buffer.remaining() >= 8) {
+            deleted.add(buffer.getLong());
+        }
+    }
+    
+    private byte[] readAt(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("冷分段文件被截断: " + file.getName());
+            }
+        }
+        return buffer.array();
+    }
+    
+    private static byte[] deflate(byte[] data, int length) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length / 2));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+    
+    private byte[] inflate(byte[] data, int size) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] raw = new byte[size];
+            int inflated = 0;
+            while (inflated < size && !inflater.finished()) {
+                int count = inflater.inflate(raw, inflated, size - inflated);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+            if (inflated != size) {
+                throw new IOException("冷分段文件的压缩块已损坏: " + file.getName());
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException("冷分段文件的压缩块已损坏: " + file.getName(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
+
+// 历史记录的存储接口：分段日志和数据库两种实现，HistoryRepository和HistoryWriter只通过它访问历史记录
+// 列表按批加载：readRecent先加载最近的几批，之后每次readOlder再加载一批更早的记录，条目按ID递增
+interface HistoryStorage {
+    // 问题的ID，从未保存过的问题返回0
+    int questionId(String question) throws IOException;
+    
+    // 追加一批记录，返回带有新ID的条目
+    ArrayList<HistoryEntry> appendAll(ArrayList<HistoryEntry> entries) throws IOException;
+    
+    // 把已写入的记录持久化到磁盘
+    void force() throws IOException;
+    
+    // 按ID读取完整记录（包括思考内容），记录不存在时返回null
+    HistoryEntry read(long id) throws IOException;
+    
+    boolean delete(long id) throws IOException;
+    
+    void clear() throws IOException;
+    
+    // 最近count批记录的摘要（不含思考内容）
+    ArrayList<HistoryEntry> readRecent(int count) throws IOException;
+    
+    boolean hasOlder();
+    
+    // 下一批更早记录的摘要，没有更早的记录时返回空列表
+    ArrayList<HistoryEntry> readOlder() throws IOException;
+    
+    // 某个问题的所有完整记录，按ID递增
+    ArrayList<HistoryEntry> findByQuestion(int questionId) throws IOException;
+    
+    // 按ID递增遍历全部记录的摘要（不含思考内容），不改变readRecent和readOlder的加载位置
+    void forEachSummary(Consumer<HistoryEntry> action) throws IOException;
+    
+    void close() throws IOException;
+}
+
+// 按月分段的历史记录：每个自然月一个日志文件（如 questions_data.journal.2026-10），再加一个很小的分段清单
+// 启动时只加载最近几个分段，更早的分段在向上滚动或查找时才逐个打开；新记录按记录时间写入当月分段
+// 超过一定月数的分段在后台压缩为只读的冷分段（见ColdHistorySegment）
+// 清单: [int 魔数][int 版本][long 新分段的最小起始ID][int 分段数]，每个分段 [UTF 月份][long 起始ID]
+// 各分段的ID范围随时间递增且互不重叠，按ID定位分段只需二分查找起始ID
+class SegmentedHistoryJournal implements HistoryStorage {
+    static final int MAGIC = 0x5450534D; // "TPSM"
+    static final int VERSION = 1;
+    private static final java.util.regex.Pattern MONTH = java.util.regex.Pattern.compile("\\d{4}-\\d{2}");
+    // 拆分单文件日志时每次批量写入的记录数
+    private static final int SPLIT_BATCH = 256;
+    
+    private final File baseFile;
+    private final File manifestFile;
+    // 所有分段共享的问题字典
+    private final QuestionDictionary dictionary;
+    private final ArrayList<Segment> segments = new ArrayList<>();
+    // 清空后新分段的起始ID不小于此值，保证记录ID始终递增
+    private long minNextId = 1;
+    // 已加载到内存视图的最早分段，它之前的分段尚未加载
+    private int loadedFrom;
+    private double compactionThreshold = 0.5;
+    private long compactionMinBytes = 64 * 1024;
+    private LongConsumer compactionListener;
+    
+    private static class Segment {
+        final String month;
+        final long firstId;
+        // 第一次访问时才打开，已压缩的分段打开冷分段
+        HistoryJournal journal;
+        ColdHistorySegment cold;
+        
+        Segment(String month, long firstId) {
+            this.month = month;
+            this.firstId = firstId;
+        }
+    }
+    
+    private SegmentedHistoryJournal(File baseFile, QuestionDictionary dictionary) {
+        this.baseFile = baseFile;
+        this.manifestFile = manifestFile(baseFile);
+        this.dictionary = dictionary;
+    }
+    
+    // 打开分段历史记录：首次运行时依次从旧版文本文件和单文件日志迁移
+    public static SegmentedHistoryJournal open(File journalFile, File legacyFile) throws IOException {
+        File manifest = manifestFile(journalFile);
+        if (!manifest.exists() && !journalFile.exists() && legacyFile.exists()) {
+            HistoryJournal.migrateLegacy(legacyFile, journalFile);
+        }
+        SegmentedHistoryJournal history = new SegmentedHistoryJournal(journalFile,
+            QuestionDictionary.open(HistoryJournal.dictionaryFile(journalFile)));
+        try {
+            if (journalFile.exists() && !manifest.exists()) {
+                history.splitJournal();
+            } else {
+                if (!history.loadManifest()) {
+                    history.rebuildManifest();
+                }
+                // 上次拆分已写好清单，只差把原日志改名
+                if (journalFile.exists()) {
+                    history.retireJournal();
+                }
+            }
+        } catch (IOException e) {
+            history.close();
+            throw e;
+        }
+        return history;
+    }
+    
+    static File manifestFile(File journalFile) {
+        return new File(journalFile.getPath() + ".manifest");
+    }
+    
+    // 问题在字典中的ID，从未保存过的问题返回0
+    @Override
+    public int questionId(String question) {
+        return dictionary.lookup(question);
+    }
+    
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+    
+    // 设置各分段触发后台整理的失效字节比例（0~1）和最小失效字节数
+    public synchronized void setCompactionPolicy(double threshold, long minBytes) {
+        this.compactionThreshold = threshold;
+        this.compactionMinBytes = minBytes;
+        for (Segment segment : segments) {
+            if (segment.journal != null) {
+                segment.journal.setCompactionPolicy(threshold, minBytes);
+            }
+        }
+    }
+    
+    public synchronized void setCompactionListener(LongConsumer listener) {
+        this.compactionListener = listener;
+        for (Segment segment : segments) {
+            if (segment.journal != null) {
+                segment.journal.setCompactionListener(listener);
+            }
+        }
+    }
+    
+    // 按记录时间写入对应的月份分段，返回带有新ID的条目
+    @Override
+    public synchronized ArrayList<HistoryEntry> appendAll(ArrayList<HistoryEntry> entries) throws IOException {
+        ArrayList<HistoryEntry> written = new ArrayList<>(entries.size());
+        int start = 0;
+        while (start < entries.size()) {
+            // 同一分段的连续记录合并成一次写入；新分段要等前面的记录写完才能确定起始ID
+            Segment segment = segmentFor(entries.get(start).getTimestamp());
+            int end = start + 1;
+            while (end < entries.size() && !isNewerMonth(entries.get(end).getTimestamp(), segment)) {
+                end++;
+            }
+            written.addAll(journal(segment).appendAll(new ArrayList<>(entries.subList(start, end))));
+            start = end;
+        }
+        return written;
+    }
+    
+    // 先刷字典，保证记录引用的问题ID都已落盘；未打开的分段没有新数据
+    @Override
+    public synchronized void force() throws IOException {
+        dictionary.force();
+        for (Segment segment : segments) {
+            if (segment.journal != null) {
+                segment.journal.force();
+            }
+            if (segment.cold != null) {
+                segment.cold.force();
+            }
+        }
+    }
+    
+    @Override
+    public synchronized HistoryEntry read(long id) throws IOException {
+        Segment segment = segmentOf(id);
+        if (segment == null) {
+            return null;
+        }
+        openSegment(segment);
+        return segment.cold != null ? segment.cold.read(id) : segment.journal.read(id);
+    }
+    
+    @Override
+    public synchronized boolean delete(long id) throws IOException {
+        Segment segment = segmentOf(id);
+        if (segment == null) {
+            return false;
+        }
+        openSegment(segment);
+        return segment.cold != null ? segment.cold.delete(id) : segment.journal.delete(id);
+    }
+    
+    // 清空所有记录：关闭并删除全部分段，问题字典保留
+    @Override
+    public synchronized void clear() throws IOException {
+        if (!segments.isEmpty()) {
+            minNextId = Math.max(minNextId, nextId(segments.get(segments.size() - 1)));
+        }
+        for (Segment segment : segments) {
+            closeSegment(segment);
+        }
+        segments.clear();
+        loadedFrom = 0;
+        deleteSegmentFiles();
+        writeManifest();
+    }
+    
+    // 加载最近count个分段的摘要（按ID递增），更早的分段留给readOlder
+    @Override
+    public synchronized ArrayList<HistoryEntry> readRecent(int count) throws IOException {
+        loadedFrom = Math.max(0, segments.size() - Math.max(1, count));
+        ArrayList<HistoryEntry> entries = new ArrayList<>();
+        for (int i = loadedFrom; i < segments.size(); i++) {
+            entries.addAll(readSummaries(segments.get(i)));
+        }
+        return entries;
+    }
+    
+    @Override
+    public synchronized boolean hasOlder() {
+        return loadedFrom > 0;
+    }
+    
+    // 加载下一个更早的非空分段的摘要，没有更早的分段时返回空列表
+    @Override
+    public synchronized ArrayList<HistoryEntry> readOlder() throws IOException {
+        while (loadedFrom > 0) {
+            loadedFrom--;
+            ArrayList<HistoryEntry> entries = readSummaries(segments.get(loadedFrom));
+            if (!entries.isEmpty()) {
+                return entries;
+            }
+        }
+        return new ArrayList<>();
+    }
+    
+    // 逐个分段读取摘要，列表尚未加载的更早分段读完即关闭
+    @Override
+    public synchronized void forEachSummary(Consumer<HistoryEntry> action) throws IOException {
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            boolean open = segment.journal != null || segment.cold != null;
+            readSummaries(segment).forEach(action);
+            if (!open && i < loadedFrom) {
+                closeSegment(segment);
+            }
+        }
+    }
+    
+    // 逐个分段按索引（冷分段按目录）找出问题的记录，不加载到列表
+    @Override
+    public synchronized ArrayList<HistoryEntry> findByQuestion(int questionId) throws IOException {
+        ArrayList<HistoryEntry> found = new ArrayList<>();
+        for (Segment segment : segments) {
+            openSegment(segment);
+            found.addAll(segment.cold != null ? segment.cold.findByQuestion(questionId) : segment.journal.findByQuestion(questionId));
+        }
+        return found;
+    }
+    
+    // 把早于最近afterMonths个月的分段压缩为冷分段，返回压缩的分段数
+    // 最新分段仍在写入，已加载到内存视图的分段有懒加载条目引用着映射，都留到以后再压缩
+    public synchronized int compressColdSegments(int afterMonths) throws IOException {
+        if (afterMonths <= 0) {
+            return 0;
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.add(Calendar.MONTH, -afterMonths);
+        String cutoff = new SimpleDateFormat("yyyy-MM").format(calendar.getTime());
+        int compressed = 0;
+        for (int i = 0; i < Math.min(loadedFrom, segments.size() - 1); i++) {
+            Segment segment = segments.get(i);
+            File coldFile = coldFile(segment.month);
+            if (segment.month.compareTo(cutoff) >= 0 || segment.cold != null || coldFile.exists()) {
+                continue;
+            }
+            HistoryJournal journal = journal(segment);
+            long before = journal.getFile().length();
+            ColdHistorySegment.compress(journal, coldFile);
+            journal.close();
+            segment.journal = null;
+            deleteJournalFiles(segment.month);
+            System.out.println("历史记录分段 " + segment.month + " 已压缩: " + before + " -> " + coldFile.length() + " 字节");
+            compressed++;
+        }
+        return compressed;
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments) {
+            closeSegment(segment);
+        }
+        dictionary.close();
+    }
+    
+    // 打开分段用于读取和删除：有压缩文件时打开冷分段，压缩后未及删除的原日志一并删除
+    private void openSegment(Segment segment) throws IOException {
+        if (segment.journal != null || segment.cold != null) {
+            return;
+        }
+        File coldFile = coldFile(segment.month);
+        if (coldFile.exists()) {
+            segment.cold = ColdHistorySegment.open(coldFile, dictionary);
+            deleteJournalFiles(segment.month);
+        } else {
+            journal(segment);
+        }
+    }
+    
+    private void closeSegment(Segment segment) throws IOException {
+        if (segment.journal != null) {
+            segment.journal.close();
+            segment.journal = null;
+        }
+        if (segment.cold != null) {
+            segment.cold.close();
+            segment.cold = null;
+        }
+    }
+    
+    private ArrayList<HistoryEntry> readSummaries(Segment segment) throws IOException {
+        openSegment(segment);
+        return segment.cold != null ? segment.cold.readSummaries() : segment.journal.readSummaries();
+    }
+    
+    private long nextId(Segment segment) throws IOException {
+        openSegment(segment);
+        return segment.cold != null ? segment.cold.nextId() : segment.journal.nextId();
+    }
+    
+    // 可写入的分段日志；冷分段只读，不会再有记录写入
+    private HistoryJournal journal(Segment segment) throws IOException {
+        if (segment.cold != null) {
+            throw new IOException("历史记录分段已压缩，不能写入: " + segment.month);
+        }
+        if (segment.journal == null) {
+            HistoryJournal journal = HistoryJournal.open(segmentFile(segment.month), dictionary, segment.firstId);
+            journal.setCompactionPolicy(compactionThreshold, compactionMinBytes);
+            journal.setCompactionListener(compactionListener);
+            segment.journal = journal;
+        }
+        return segment.journal;
+    }
+    
+    // 记录所属的分段：最后一个起始ID不大于记录ID的分段
+    private Segment segmentOf(long id) {
+        int low = 0;
+        int high = segments.size() - 1;
+        Segment found = null;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (segments.get(mid).firstId <= id) {
+                found = segments.get(mid);
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+    
+    // 记录时间所在月份比最新分段新时创建新分段；更早的时间（例如系统时钟回拨）仍写入最新分段
+    private Segment segmentFor(String timestamp) throws IOException {
+        Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (last == null || isNewerMonth(timestamp, last)) {
+            String month = monthOf(timestamp);
+            Segment segment = createSegment(month != null ? month : currentMonth());
+            writeManifest();
+            return segment;
+        }
+        return last;
+    }
+    
+    private static boolean isNewerMonth(String timestamp, Segment segment) {
+        String month = monthOf(timestamp);
+        return (month != null ? month : currentMonth()).compareTo(segment.month) > 0;
+    }
+    
+    // 新分段从上一个分段的下一个ID开始；清单里没有的同名文件是清空或拆分中断留下的，先删除
+    private Segment createSegment(String month) throws IOException {
+        long firstId = minNextId;
+        if (!segments.isEmpty()) {
+            firstId = Math.max(firstId, nextId(segments.get(segments.size() - 1)));
+        }
+        deleteSegmentFiles(month);
+        Segment segment = new Segment(month, firstId);
+        journal(segment);
+        segments.add(segment);
+        return segment;
+    }
+    
+    private File segmentFile(String month) {
+        return new File(baseFile.getPath() + "." + month);
+    }
+    
+    private File coldFile(String month) {
+        return new File(segmentFile(month).getPath() + ".z");
+    }
+    
+    // 时间戳以 yyyy-MM 开头时返回月份，否则返回null
+    static String monthOf(String timestamp) {
+        if (timestamp == null || timestamp.length() < 7) {
+            return null;
+        }
+        String month = timestamp.substring(0, 7);
+        return MONTH.matcher(month).matches() ? month : null;
+    }
+    
+    private static String currentMonth() {
+        return new SimpleDateFormat("yyyy-MM").format(new Date());
+    }
+    
+    // 读取清单，清单不存在或已损坏时返回false
+    private boolean loadManifest() {
+        if (!manifestFile.exists()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(manifestFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return false;
+            }
+            long minNext = in.readLong();
+            int count = in.readInt();
+            ArrayList<Segment> loaded = new ArrayList<>(Math.max(0, count));
+            for (int i = 0; i < count; i++) {
+                loaded.add(new Segment(in.readUTF(), in.readLong()));
+            }
+            minNextId = minNext;
+            segments.addAll(loaded);
+            return true;
+        } catch (IOException e) {
+            System.err.println("读取历史记录分段清单失败: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    // 按磁盘上的分段文件重建清单：逐个打开分段取得起始ID
+    private void rebuildManifest() throws IOException {
+        segments.clear();
+        ArrayList<String> months = segmentMonthsOnDisk();
+        if (!months.isEmpty()) {
+            System.out.println("历史记录分段清单无效，正在按 " + months.size() + " 个分段文件重建");
+        }
+        long nextId = minNextId;
+        for (String month : months) {
+            Segment segment;
+            if (coldFile(month).exists()) {
+                ColdHistorySegment cold = ColdHistorySegment.open(coldFile(month), dictionary);
+                segment = new Segment(month, cold.firstId());
+                segment.cold = cold;
+            } else {
+                HistoryJournal journal = HistoryJournal.open(segmentFile(month), dictionary, nextId);
+                segment = new Segment(month, journal.firstId());
+                segment.journal = journal;
+            }
+            segments.add(segment);
+            nextId = nextId(segment);
+        }
+        writeManifest();
+    }
+    
+    // 清单先写入临时文件并同步到磁盘，再原子替换
+    private void writeManifest() throws IOException {
+        File tempFile = new File(manifestFile.getPath() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tempFile);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(minNextId);
+            out.writeInt(segments.size());
+            for (Segment segment : segments) {
+                out.writeUTF(segment.month);
+                out.writeLong(segment.firstId);
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(tempFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    // 把单文件日志按记录时间拆分成月份分段，分段落盘并写好清单后原日志改名保留为 .bak
+    // 中途失败时清单尚未写入，下次启动会删除已写的分段重新拆分
+    private void splitJournal() throws IOException {
+        deleteSegmentFiles();
+        HistoryJournal source = HistoryJournal.open(baseFile, dictionary, 1);
+        int count = 0;
+        try {
+            ArrayList<HistoryEntry> summaries = source.readSummaries();
+            // 开头没有时间的记录归入第一个有时间的月份
+            String month = null;
+            for (HistoryEntry summary : summaries) {
+                month = monthOf(summary.getTimestamp());
+                if (month != null) {
+                    break;
+                }
+            }
+            if (month == null) {
+                month = currentMonth();
+            }
+            Segment segment = null;
+            ArrayList<HistoryEntry> batch = new ArrayList<>(SPLIT_BATCH);
+            for (HistoryEntry summary : summaries) {
+                String entryMonth = monthOf(summary.getTimestamp());
+                if (entryMonth != null && entryMonth.compareTo(month) > 0) {
+                    month = entryMonth;
+                }
+                if (segment == null || !segment.month.equals(month)) {
+                    if (!batch.isEmpty()) {
+                        journal(segment).appendAll(batch);
+                        batch.clear();
+                    }
+                    segment = createSegment(month);
+                }
+                HistoryEntry entry = source.read(summary.getId());
+                if (entry != null) {
+                    batch.add(entry);
+                    count++;
+                }
+                if (batch.size() >= SPLIT_BATCH) {
+                    journal(segment).appendAll(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                journal(segment).appendAll(batch);
+            }
+        } finally {
+            source.close();
+        }
+        force();
+        writeManifest();
+        retireJournal();
+        System.out.println("历史记录日志已按月拆分为 " + segments.size() + " 个分段，共 " + count + " 条记录");
+    }
+    
+    // 原单文件日志改名保留为 .bak，它的索引不再需要
+    private void retireJournal() throws IOException {
+        Files.move(baseFile.toPath(), new File(baseFile.getPath() + ".bak").toPath(), StandardCopyOption.REPLACE_EXISTING);
+        new File(baseFile.getPath() + ".idx").delete();
+    }
+    
+    // 磁盘上所有分段文件（包括冷分段）的月份，按时间排序
+    private ArrayList<String> segmentMonthsOnDisk() {
+        TreeSet<String> months = new TreeSet<>();
+        String prefix = baseFile.getName() + ".";
+        String[] names = baseFile.getAbsoluteFile().getParentFile().list();
+        if (names != null) {
+            for (String name : names) {
+                String suffix = name.startsWith(prefix) ? name.substring(prefix.length()) : "";
+                if (suffix.endsWith(".z")) {
+                    suffix = suffix.substring(0, suffix.length() - 2);
+                }
+                if (MONTH.matcher(suffix).matches()) {
+                    months.add(suffix);
+                }
+            }
+        }
+        return new ArrayList<>(months);
+    }
+    
+    private void deleteSegmentFiles() {
+        for (String month : segmentMonthsOnDisk()) {
+            deleteSegmentFiles(month);
+        }
+    }
+    
+    private void deleteSegmentFiles(String month) {
+        deleteJournalFiles(month);
+        File coldFile = coldFile(month);
+        coldFile.delete();
+        ColdHistorySegment.deletedFile(coldFile).delete();
+    }
+    
+    private void deleteJournalFiles(String month) {
+        File segmentFile = segmentFile(month);
+        segmentFile.delete();
+        new File(segmentFile.getPath() + ".idx").delete();
+    }
+}
+
+// 历史记录写入线程：有界队列 + 批量提交（group commit）
+// 调用方只负责入队，写入线程一次取出所有待写记录合并成一次写入，再按持久化策略决定是否fsync
+class HistoryWriter {
+    // 持久化策略：不主动fsync / 每批fsync一次 / 每隔固定毫秒数fsync一次
+    enum DurabilityPolicy {
+        NONE, FSYNC_PER_BATCH, FSYNC_INTERVAL;
+        
+        static DurabilityPolicy fromConfig(String value) {
+            switch (value.toLowerCase()) {
+                case "none": return NONE;
+                case "interval": return FSYNC_INTERVAL;
+                default: return FSYNC_PER_BATCH;
+            }
+        }
+    }
+    
+    private static final int MAX_BATCH = 256;
+    // 关闭时放入队列的结束标记
+    private static final PendingRecord SHUTDOWN = new PendingRecord("", "", "");
+    
+    private final HistoryStorage journal;
+    private final DurabilityPolicy policy;
+    private final long fsyncIntervalMs;
+    private final ArrayBlockingQueue<PendingRecord> queue;
+    private final Thread thread;
+    private volatile boolean closed;
+    
+    public HistoryWriter(HistoryStorage journal, DurabilityPolicy policy, long fsyncIntervalMs, int capacity) {
+        this.journal = journal;
+        this.policy = policy;
+        this.fsyncIntervalMs = Math.max(1, fsyncIntervalMs);
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.thread = new Thread(this::run, "history-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+    
+    // 把记录放入写入队列后立即返回，写入完成（或失败）时完成返回的Future
+    public CompletableFuture<HistoryEntry> submit(String question, String answer, String timestamp) {
+        PendingRecord record = new PendingRecord(question, answer, timestamp);
+        try {
+            if (closed || !queue.offer(record, 200, TimeUnit.MILLISECONDS)) {
+                record.future.completeExceptionally(new IOException(closed ? "历史记录写入线程已关闭" : "历史记录写入队列已满，请稍后再试"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            record.future.completeExceptionally(e);
+        }
+        return record.future;
+    }
+    
+    // 停止接收新记录，写完队列中剩余的记录并fsync后返回
+    // 不能中断写入线程：中断正在进行的FileChannel写入会导致通道被关闭
+    public void close() {
+        closed = true;
+        try {
+            queue.put(SHUTDOWN);
+            thread.join(10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void run() {
+        ArrayList<PendingRecord> batch = new ArrayList<>(MAX_BATCH);
+        long lastSync = System.currentTimeMillis();
+        boolean unsynced = false;
+        boolean running = true;
+        while (running) {
+            try {
+                PendingRecord first;
+                if (unsynced) {
+                    // 间隔模式下有未同步数据时，最多等到下一次fsync时间点
+                    long wait = lastSync + fsyncIntervalMs - System.currentTimeMillis();
+                    first = queue.poll(Math.max(0, wait), TimeUnit.MILLISECONDS);
+                } else {
+                    first = queue.take();
+                }
+                
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    if (batch.remove(SHUTDOWN)) {
+                        running = false;
+                    }
+                    if (!batch.isEmpty()) {
+                        writeBatch(batch);
+                        batch.clear();
+                        unsynced = policy == DurabilityPolicy.FSYNC_INTERVAL;
+                    }
+                }
+                if (unsynced && (!running || System.currentTimeMillis() - lastSync >= fsyncIntervalMs)) {
+                    journal.force();
+                    lastSync = System.currentTimeMillis();
+                    unsynced = false;
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (IOException e) {
+                System.err.println("同步历史记录日志失败: " + e.getMessage());
+            }
+        }
+    }
+    
+    private void writeBatch(ArrayList<PendingRecord> batch) {
+        ArrayList<HistoryEntry> entries = new ArrayList<>(batch.size());
+        for (PendingRecord record : batch) {
+            entries.add(new HistoryEntry(record.question, record.answer, record.timestamp));
+        }
+        try {
+            ArrayList<HistoryEntry> written = journal.appendAll(entries);
+            if (policy == DurabilityPolicy.FSYNC_PER_BATCH) {
+                journal.force();
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(written.get(i));
+            }
+        } catch (IOException e) {
+            for (PendingRecord record : batch) {
+                record.future.completeExceptionally(e);
+            }
+        }
+    }
+    
+    private static class PendingRecord {
+        final String question;
+        final String answer;
+        final String timestamp;
+        final CompletableFuture<HistoryEntry> future = new CompletableFuture<>();
+        
+        PendingRecord(String question, String answer, String timestamp) {
+            this.question = question;
+            this.answer = answer;
+            this.timestamp = timestamp;
+        }
+    }
+}
+
+// 历史记录仓库：进程内唯一的历史记录视图，主窗口和历史记录窗口共享
+// 启动时只加载最近几个月份分段，更早的分段按需加载并插入到视图开头；之后保存、删除和清空都增量更新内存视图并通知各个界面，不再重新读取文件
+// 内存视图按记录ID递增排列；界面拿到的是只读快照，之后通过监听器接收增量变化
+class HistoryRepository {
+    // 在事件分派线程中调用
+    interface Listener {
+        void entryAdded(HistoryEntry entry);
+        void entryDeleted(long id);
+        void entriesCleared();
+        // 更早的分段加载完成，条目的ID都小于已有条目
+        void olderEntriesLoaded(java.util.List<HistoryEntry> older);
+    }
+    
+    private final HistoryStorage journal;
+    private final HistoryWriter writer;
+    private final ArrayList<HistoryEntry> entries;
+    private final ArrayList<Listener> listeners = new ArrayList<>();
+    // 只读快照，视图变化后在下次请求时重建
+    private java.util.List<HistoryEntry> snapshot;
+    
+    public HistoryRepository(HistoryStorage journal, HistoryWriter writer, int recentBatches) throws IOException {
+        this.journal = journal;
+        this.writer = writer;
+        this.entries = journal.readRecent(recentBatches);
+    }
+    
+    public synchronized int size() {
+        return entries.size();
+    }
+    
+    public synchronized java.util.List<HistoryEntry> snapshot() {
+        if (snapshot == null) {
+            snapshot = Collections.unmodifiableList(new ArrayList<>(entries));
+        }
+        return snapshot;
+    }
+    
+    // 注册监听器并返回注册时的快照，快照之后的变化都会通知给监听器
+    public synchronized java.util.List<HistoryEntry> addListener(Listener listener) {
+        listeners.add(listener);
+        return snapshot();
+    }
+    
+    public synchronized void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+    
+    // 按ID读取完整记录（包括思考内容）
+    public HistoryEntry read(long id) throws IOException {
+        return journal.read(id);
+    }
+    
+    public boolean hasOlder() {
+        return journal.hasOlder();
+    }
+    
+    // 加载下一个更早的分段并插入到内存视图开头，返回加载的条数（没有更早的记录时为0）
+    public synchronized int loadOlder() throws IOException {
+        ArrayList<HistoryEntry> older = journal.readOlder();
+        if (older.isEmpty()) {
+            return 0;
+        }
+        entries.addAll(0, older);
+        snapshot = null;
+        java.util.List<HistoryEntry> loaded = Collections.unmodifiableList(older);
+        fire(listener -> listener.olderEntriesLoaded(loaded));
+        return older.size();
+    }
+    
+    // 某个问题的所有回答（包括思考内容）：查找覆盖全部历史，由存储按问题ID检索，不加载到列表
+    public ArrayList<HistoryEntry> entriesForQuestion(int questionId) throws IOException {
+        return journal.findByQuestion(questionId);
+    }
+    
+    // 问题在问题字典中的ID，从未回答过的问题返回0
+    public int questionId(String question) throws IOException {
+        return journal.questionId(question);
+    }
+    
+    // 交给写入线程保存，写入完成后把摘要加入内存视图
+    public CompletableFuture<HistoryEntry> save(String question, String answer, String timestamp) {
+        return writer.submit(question, answer, timestamp).thenApply(entry -> {
+            HistoryEntry summary = new HistoryEntry(entry.getId(), entry.getQuestionId(), entry.getQuestion(), null, entry.getTimestamp());
+            synchronized (this) {
+                int position = search(entries, summary.getId());
+                if (position < 0) {
+                    entries.add(-position - 1, summary);
+                    snapshot = null;
+                    fire(listener -> listener.entryAdded(summary));
+                }
+            }
+            return entry;
+        });
+    }
+    
+    // 在日志中追加删除标记并从内存视图移除，记录不存在时返回false
+    public synchronized boolean delete(long id) throws IOException {
+        if (!journal.delete(id)) {
+            return false;
+        }
+        int position = search(entries, id);
+        if (position >= 0) {
+            entries.remove(position);
+            snapshot = null;
+        }
+        fire(listener -> listener.entryDeleted(id));
+        return true;
+    }
+    
+    public synchronized void clear() throws IOException {
+        journal.clear();
+        entries.clear();
+        snapshot = null;
+        fire(Listener::entriesCleared);
+    }
+    
+    // 在按ID递增的条目中二分查找，找不到时返回 -(插入位置) - 1
+    static int search(java.util.List<HistoryEntry> entries, long id) {
+        int low = 0;
+        int high = entries.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = entries.get(mid).getId();
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+    
+    // 调用方持有锁：复制当前监听器后排入事件分派线程，保证各界面收到的变化与视图的修改顺序一致
+    private void fire(Consumer<Listener> event) {
+        Listener[] targets = listeners.toArray(new Listener[0]);
+        if (targets.length == 0) {
+            return;
+        }
+        SwingUtilities.invokeLater(() -> {
+            for (Listener listener : targets) {
+                event.accept(listener);
+            }
+        });
+    }
+}
+
+// 存储接口：题库和历史记录的持久化与查询。默认使用平面文件，配置 storage.backend=jdbc 时使用嵌入式数据库
+interface ThinkingPadStorage {
+    HistoryStorage history();
+    
+    // 题库中的所有问题，按保存顺序
+    ArrayList<String> loadQuestions() throws IOException;
+    
+    // 用questions整体替换题库
+    void replaceQuestions(java.util.List<String> questions) throws IOException;
+    
+    void appendQuestions(java.util.List<String> questions) throws IOException;
+    
+    void clearQuestions() throws IOException;
+    
+    // 题库所在的文本文件，题库不保存在文件中时返回null（此时不需要监视外部修改，导入也不写文件）
+    File questionFile();
+    
+    void close() throws IOException;
+    
+    // 按配置打开存储；数据库无法打开（例如类路径上没有驱动）时改用平面文件。
+    // 第一次切换到数据库时，把平面文件中已有的题库和历史记录复制到空数据库
+    static ThinkingPadStorage open(File historyFile, File legacyHistoryFile, File questionFile) throws IOException {
+        if (!"jdbc".equalsIgnoreCase(ThinkingPadConfig.get("storage.backend", "file"))) {
+            return FlatFileStorage.open(historyFile, legacyHistoryFile, questionFile);
+        }
+        JdbcStorage database;
+        try {
+            database = JdbcStorage.open(ThinkingPadConfig.get("storage.jdbcUrl", "jdbc:h2:./thinkingpad"));
+        } catch (IOException e) {
+            System.err.println(e.getMessage() + "，改用文件存储");
+            return FlatFileStorage.open(historyFile, legacyHistoryFile, questionFile);
+        }
+        try {
+            boolean hasFiles = questionFile.exists() || historyFile.exists() || legacyHistoryFile.exists()
+                || SegmentedHistoryJournal.manifestFile(historyFile).exists();
+            if (hasFiles && database.isEmpty()) {
+                FlatFileStorage files = FlatFileStorage.open(historyFile, legacyHistoryFile, questionFile);
+                try {
+                    database.importFrom(files);
+                } finally {
+                    files.close();
+                }
+            }
+        } catch (IOException e) {
+            database.close();
+            throw e;
+        }
+        return database;
+    }
+}
+
+// 平面文件存储：历史记录是按月分段的日志，题库是每行一个问题的文本文件（可以用外部编辑器修改）
+class FlatFileStorage implements ThinkingPadStorage {
+    private final SegmentedHistoryJournal history;
+    private final File questionFile;
+    
+    private FlatFileStorage(SegmentedHistoryJournal history, File questionFile) {
+        this.history = history;
+        this.questionFile = questionFile;
+    }
+    
+    public static FlatFileStorage open(File historyFile, File legacyHistoryFile, File questionFile) throws IOException {
+        return new FlatFileStorage(SegmentedHistoryJournal.open(historyFile, legacyHistoryFile), questionFile);
+    }
+    
+    @Override
+    public SegmentedHistoryJournal history() {
+        return history;
+    }
+    
+    @Override
+    public ArrayList<String> loadQuestions() throws IOException {
+        if (!questionFile.exists()) {
+            System.out.println("问题文件不存在: " + questionFile.getPath());
+            return new ArrayList<>();
+        }
+        return readQuestionFile(questionFile);
+    }
+    
+    // 题库以UTF-8整体重写，保留文件中原有的分类标题；先写临时文件再原子替换，写到一半崩溃时旧题库仍然完整
+    @Override
+    public void replaceQuestions(java.util.List<String> questions) throws IOException {
+        QuestionSections sections = QuestionSections.read(questionFile);
+        File tempFile = new File(questionFile.getPath() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tempFile);
+             OutputStream out = new BufferedOutputStream(file)) {
+            if (!sections.isEmpty()) {
+                sections.writeTo(out, questions);
+            } else if (questions instanceof QuestionBank) {
+                ((QuestionBank) questions).writeTo(out);
+            } else {
+                writeLines(out, questions);
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(tempFile.toPath(), questionFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    // 追加前确保题库文件以换行结尾
+    @Override
+    public void appendQuestions(java.util.List<String> questions) throws IOException {
+        if (questionFile.length() > 0) {
+            try (RandomAccessFile existing = new RandomAccessFile(questionFile, "rw")) {
+                existing.seek(existing.length() - 1);
+                if (existing.read() != '\n') {
+                    existing.write('\n');
+                }
+            }
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(questionFile, true))) {
+            writeLines(out, questions);
+        }
+    }
+    
+    @Override
+    public void clearQuestions() throws IOException {
+        if (questionFile.exists() && !questionFile.delete()) {
+            throw new IOException("无法删除题库文件: " + questionFile.getPath());
+        }
+    }
+    
+    @Override
+    public File questionFile() {
+        return questionFile;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        history.close();
+    }
+    
+    // 读取问题文件：只读取一次，自动检测编码，忽略空行、注释行和解码后仍有乱码的行
+    static ArrayList<String> readQuestionFile(File file) throws IOException {
+        String text = CharsetDetector.readText(file);
+        ArrayList<String> lines = new ArrayList<>();
+        int start = 0;
+        int length = text.length();
+        while (start < length) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                end = length;
+            }
+            String line = text.substring(start, end).trim();
+            if (!line.isEmpty() && !line.startsWith("#") && line.indexOf('\uFFFD') < 0) {
+                lines.add(line);
+            }
+            start = end + 1;
+        }
+        return lines;
+    }
+    
+    private static void writeLines(OutputStream out, java.util.List<String> questions) throws IOException {
+        for (String question : questions) {
+            out.write(question.getBytes(StandardCharsets.UTF_8));
+            out.write('\n');
+        }
+    }
+}
+
+// 嵌入式数据库存储（JDBC）：题库和历史记录保存在一个单文件数据库中，默认使用H2（jdbc:h2:./thinkingpad），
+// 也可以配置为SQLite（jdbc:sqlite:thinkingpad.db），驱动需要在类路径上
+// 表: questions(seq, question)                      题库，按seq排列
+//     question_dict(id, question)                   历史记录的问题字典，问题唯一
+//     history(id, question_id, answer, created)     历史记录，按(question_id, id)建索引
+//     meta(name, num)                               清空后仍要保持递增的下一个记录ID
+// 每个修改在一个事务中完成，失败时回滚，删除和清空要么全部生效要么不生效
+class JdbcStorage implements ThinkingPadStorage, HistoryStorage {
+    // 列表每批加载的记录数，对应文件存储中的一个分段
+    private static final int PAGE_SIZE = 1000;
+    private static final int BATCH_SIZE = 1000;
+    private static final String SUMMARY = "SELECT h.id, h.question_id, d.question, h.created FROM history h "
+        + "JOIN question_dict d ON d.id = h.question_id ";
+    private static final String FULL = "SELECT h.id, h.question_id, d.question, h.created, h.answer FROM history h "
+        + "JOIN question_dict d ON d.id = h.question_id ";
+    
+    private final String url;
+    private final Connection connection;
+    // 问题文本 -> 问题ID的缓存
+    private final HashMap<String, Integer> questionIds = new HashMap<>();
+    private long nextId = 1;
+    private int nextQuestionId = 1;
+    // 已加载到列表的最早记录ID
+    private long oldestLoaded = Long.MAX_VALUE;
+    private boolean hasOlder;
+    
+    private JdbcStorage(String url, Connection connection) {
+        this.url = url;
+        this.connection = connection;
+    }
+    
+    public static JdbcStorage open(String url) throws IOException {
+        try {
+            Connection connection = DriverManager.getConnection(url);
+            JdbcStorage storage = new JdbcStorage(url, connection);
+            try {
+                storage.initialize();
+            } catch (SQLException e) {
+                connection.close();
+                throw e;
+            }
+            System.out.println("已打开数据库存储: " + url);
+            return storage;
+        } catch (SQLException e) {
+            throw new IOException("无法打开数据库存储 " + url + ": " + e.getMessage(), e);
+        }
+    }
+    
+    private void initialize() throws SQLException {
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS questions (seq INTEGER NOT NULL PRIMARY KEY, question VARCHAR NOT NULL)");
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS question_dict (id INTEGER NOT NULL PRIMARY KEY, question VARCHAR NOT NULL UNIQUE)");
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS history (id BIGINT NOT NULL PRIMARY KEY, question_id INTEGER NOT NULL, "
+                + "answer VARCHAR NOT NULL, created VARCHAR(32) NOT NULL)");
+            statement.executeUpdate("CREATE INDEX IF NOT EXISTS history_question ON history (question_id, id)");
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS meta (name VARCHAR(32) NOT NULL PRIMARY KEY, num BIGINT NOT NULL)");
+            nextId = Math.max(queryLong(statement, "SELECT MAX(id) FROM history") + 1,
+                queryLong(statement, "SELECT MAX(num) FROM meta WHERE name = 'next_id'"));
+            nextQuestionId = (int) queryLong(statement, "SELECT MAX(id) FROM question_dict") + 1;
+        }
+        connection.commit();
+    }
+    
+    // 题库和历史记录都为空
+    synchronized boolean isEmpty() throws IOException {
+        try (Statement statement = connection.createStatement()) {
+            boolean empty = queryLong(statement, "SELECT COUNT(*) FROM questions") == 0
+                && queryLong(statement, "SELECT COUNT(*) FROM history") == 0;
+            connection.commit();
+            return empty;
+        } catch (SQLException e) {
+            throw rollback(e);
+        }
+    }
+    
+    // 从另一个存储复制题库和全部历史记录（按原顺序，记录重新编号）
+    void importFrom(ThinkingPadStorage source) throws IOException {
+        ArrayList<String> questions = source.loadQuestions();
+        if (!questions.isEmpty()) {
+            replaceQuestions(questions);
+        }
+        HistoryStorage history = source.history();
+        ArrayList<HistoryEntry> summaries = history.readRecent(Integer.MAX_VALUE);
+        ArrayList<HistoryEntry> batch = new ArrayList<>(BATCH_SIZE);
+        for (HistoryEntry summary : summaries) {
+            HistoryEntry entry = history.read(summary.getId());
+            if (entry != null) {
+                batch.add(entry);
+            }
+            if (batch.size() >= BATCH_SIZE) {
+                appendAll(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            appendAll(batch);
+        }
+        System.out.println("已把文件存储中的 " + questions.size() + " 个问题和 " + summaries.size() + " 条历史记录复制到数据库");
+    }
+    
+    @Override
+    public HistoryStorage history() {
+        return this;
+    }
+    
+    @Override
+    public synchronized ArrayList<String> loadQuestions() throws IOException {
+        ArrayList<String> questions = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT question FROM questions ORDER BY seq")) {
+            while (rows.next()) {
+                questions.add(rows.getString(1));
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            throw rollback(e);
+        }
+        return questions;
+    }
+    
+    @Override
+    public synchronized void replaceQuestions(java.util.List<String> questions) throws IOException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DELETE FROM questions");
+            insertQuestions(questions, 0);
+            connection.commit();
+        } catch (SQLException e) {
+            throw rollback(e);
+        }
+    }
+    
+    @Override
+    public synchronized void appendQuestions(java.util.List<String> questions) throws IOException {
+        try (Statement statement = connection.createStatement()) {
+            insertQuestions(questions, (int) queryLong(statement, "SELECT MAX(seq) FROM questions") + 1);
+            connection.commit();
+        } catch (SQLException e) {
+            throw rollback(e);
+        }
+    }
+    
+    @Override
+    public synchronized void clearQuestions() throws IOException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DELETE FROM questions");
+            connection.commit();
+        } catch (SQLException e) {
+            throw rollback(e);
+        }
+    }
+    
+    @Override
+    public File questionFile() {
+        return null;
+    }
+    
+    @Override
+    public synchronized int questionId(String question) throws IOException {
+        Integer cached = questionIds.get(question);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            int id = lookupQuestion(question);
+            connection.commit();
+            if (id > 0) {
+                questionIds.put(question, id);
+            }
+            return id;
+        } catch (SQLException e) {
+            throw rollback(e);
+        }
+    }
+    
+    // 一批记录（连同新问题）在一个事务中写入
+    @Override
+    public synchronized ArrayList<HistoryEntry> appendAll(ArrayList<HistoryEntry> entries) throws IOException {
+        ArrayList<HistoryEntry> written = new ArrayList<>(entries.size());
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO history (id, question_id, answer, created) VALUES (?, ?, ?, ?)")) {
+            long id = nextId;
+            for (HistoryEntry entry : entries) {
+                int questionId = internQuestion(entry.getQuestion());
+                insert.setLong(1, id);
+                insert.setInt(2, questionId);
+                insert.setString(3, entry.getAnswer());
+                insert.setString(4, entry.getTimestamp());
+                insert.addBatch();
+                written.add(new HistoryEntry(id, questionId, entry.getQuestion(), entry.getAnswer(), entry.getTimestamp()));
+                id++;
+            }
+            insert.executeBatch();
+            connection.commit();
+            nextId = id;
+            return written;
+        } catch (SQLException e) {
+            // 回滚后本批新加入字典的问题也不存在了
+            questionIds.clear();
+            IOException failure = rollback(e);
+            try (Statement statement = connection.createStatement()) {
+                nextQuestionId = (int) queryLong(statement, "SELECT MAX(id) FROM question_dict") + 1;
+                connection.commit();
+            } catch (SQLException ignored) {
+                failure.addSuppressed(ignored);
+            }
+            throw failure;
+        }
+    }
+    
+    // 每个修改都已提交，持久化由数据库负责
+    @Override
+    public void force() {
+    }
+    
+    @Override
+    public synchronized HistoryEntry read(long id) throws IOException {
+        try (PreparedStatement query = connection.prepareStatement(FULL + "WHERE h.id = ?")) {
+            query.setLong(1, id);
+            ArrayList<HistoryEntry> found = readEntries(query, true);
+            connection.commit();
+            return found.isEmpty() ? null : found.get(0);
+        } catch (SQLException e) {
+            throw rollback(e);
+        }
+    }
+    
+    @Override
+    public synchronized boolean delete(long id) throws IOException {
+        try (PreparedStatement delete = connection.prepareStatement("DELETE FROM history WHERE id = ?")) {
+            delete.setLong(1, id);
+            boolean deleted = delete.executeUpdate() > 0;
+            connection.commit();
+            return deleted;
+        } catch (SQLException e) {
+            throw rollback(e);
+        }
+    }
+    
+    // 清空历史记录，记下下一个记录ID保证清空后ID仍然递增；问题字典保留
+    @Override
+    public synchronized void clear() throws IOException {
+        try (Statement statement = connection.createStatement();
+             PreparedStatement next = connection.prepareStatement("INSERT INTO meta (name, num) VALUES ('next_id', ?)")) {
+            statement.executeUpdate("DELETE FROM history");
+            statement.executeUpdate("DELETE FROM meta WHERE name = 'next_id'");
+            next.setLong(1, nextId);
+            next.executeUpdate();
+            connection.commit();
+            oldestLoaded = Long.MAX_VALUE;
+            hasOlder = false;
+        } catch (SQLException e) {
+            throw rollback(e);
+        }
+    }
+    
+    @Override
+    public synchronized ArrayList<HistoryEntry> readRecent(int count) throws IOException {
+        oldestLoaded = Long.MAX_VALUE;
+        hasOlder = true;
+        return readPage((int) Math.min((long) PAGE_SIZE * Math.max(1, count), Integer.MAX_VALUE));
+    }
+    
+    @Override
+    public synchronized boolean hasOlder() {
+        return hasOlder;
+    }
+    
+    @Override
+    public synchronized ArrayList<HistoryEntry> readOlder() throws IOException {
+        return hasOlder ? readPage(PAGE_SIZE) : new ArrayList<>();
+    }
+    
+    // 逐行读取结果，不把全部记录放入列表
+    @Override
+    public synchronized void forEachSummary(Consumer<HistoryEntry> action) throws IOException {
+        try (PreparedStatement query = connection.prepareStatement(SUMMARY + "ORDER BY h.id")) {
+            query.setFetchSize(PAGE_SIZE);
+            try (ResultSet rows = query.executeQuery()) {
+                while (rows.next()) {
+                    action.accept(new HistoryEntry(rows.getLong(1), rows.getInt(2), rows.getString(3), null, rows.getString(4)));
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            throw rollback(e);
+        }
+    }
+    
+    // 按(question_id, id)索引查找
+    @Override
+    public synchronized ArrayList<HistoryEntry> findByQuestion(int questionId) throws IOException {
+        try (PreparedStatement query = connection.prepareStatement(FULL + "WHERE h.question_id = ? ORDER BY h.id")) {
+            query.setInt(1, questionId);
+            ArrayList<HistoryEntry> found = readEntries(query, true);
+            connection.commit();
+            return found;
+        } catch (SQLException e) {
+            throw rollback(e);
+        }
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            throw new IOException("关闭数据库存储失败: " + e.getMessage(), e);
+        }
+    }
+    
+    // 已加载的最早记录之前的limit条记录，按ID递增返回；不足limit条时说明没有更早的记录了
+    private ArrayList<HistoryEntry> readPage(int limit) throws IOException {
+        try (PreparedStatement query = connection.prepareStatement(SUMMARY + "WHERE h.id < ? ORDER BY h.id DESC LIMIT ?")) {
+            query.setLong(1, oldestLoaded);
+            query.setInt(2, limit);
+            ArrayList<HistoryEntry> page = readEntries(query, false);
+            connection.commit();
+            Collections.reverse(page);
+            hasOlder = page.size() == limit;
+            if (!page.isEmpty()) {
+                oldestLoaded = page.get(0).getId();
+            }
+            return page;
+        } catch (SQLException e) {
+            throw rollback(e);
+        }
+    }
+    
+    private static ArrayList<HistoryEntry> readEntries(PreparedStatement query, boolean withAnswer) throws SQLException {
+        ArrayList<HistoryEntry> entries = new ArrayList<>();
+        try (ResultSet rows = query.executeQuery()) {
+            while (rows.next()) {
+                entries.add(new HistoryEntry(rows.getLong(1), rows.getInt(2), rows.getString(3),
+                    withAnswer ? rows.getString(5) : null, rows.getString(4)));
+            }
+        }
+        return entries;
+    }
+    
+    private int internQuestion(String question) throws SQLException {
+        Integer cached = questionIds.get(question);
+        if (cached != null) {
+            return cached;
+        }
+        int id = lookupQuestion(question);
+        if (id == 0) {
+            id = nextQuestionId;
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO question_dict (id, question) VALUES (?, ?)")) {
+                insert.setInt(1, id);
+                insert.setString(2, question);
+                insert.executeUpdate();
+            }
+            nextQuestionId++;
+        }
+        questionIds.put(question, id);
+        return id;
+    }
+    
+    private int lookupQuestion(String question) throws SQLException {
+        try (PreparedStatement query = connection.prepareStatement("SELECT id FROM question_dict WHERE question = ?")) {
+            query.setString(1, question);
+            try (ResultSet rows = query.executeQuery()) {
+                return rows.next() ? rows.getInt(1) : 0;
+            }
+        }
+    }
+    
+    private void insertQuestions(java.util.List<String> questions, int firstSeq) throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO questions (seq, question) VALUES (?, ?)")) {
+            int seq = firstSeq;
+            for (String question : questions) {
+                insert.setInt(1, seq++);
+                insert.setString(2, question);
+                insert.addBatch();
+                if ((seq - firstSeq) % BATCH_SIZE == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+    }
+    
+    // 单个数值的查询结果，没有结果或为NULL时返回0
+    private static long queryLong(Statement statement, String sql) throws SQLException {
+        try (ResultSet rows = statement.executeQuery(sql)) {
+            return rows.next() ? rows.getLong(1) : 0;
+        }
+    }
+    
+    private IOException rollback(SQLException e) {
+        try {
+            connection.rollback();
+        } catch (SQLException suppressed) {
+            e.addSuppressed(suppressed);
+        }
+        return new IOException("数据库操作失败（" + url + "）: " + e.getMessage(), e);
+    }
+}
+
+// 问题文件编码检测：只读取一次字节，依次检查BOM、校验UTF-8合法性、为GBK打分，然后直接从同一缓冲区解码
+class CharsetDetector {
+    static final Charset GBK = Charset.forName("GBK");
+    
+    // 检测结果：编码和需要跳过的BOM长度
+    static final class Result {
+        final Charset charset;
+        final int bomLength;
+        
+        Result(Charset charset, int bomLength) {
+            this.charset = charset;
+            this.bomLength = bomLength;
+        }
+    }
+    
+    // 检测data前length个字节的编码；truncated为true表示这只是文件开头的一段，末尾允许出现不完整的多字节字符
+    static Result detect(byte[] data, int length, boolean truncated) {
+        if (length >= 3 && (data[0] & 0xFF) == 0xEF && (data[1] & 0xFF) == 0xBB && (data[2] & 0xFF) == 0xBF) {
+            return new Result(StandardCharsets.UTF_8, 3);
+        }
+        if (length >= 2 && (data[0] & 0xFF) == 0xFF && (data[1] & 0xFF) == 0xFE) {
+            return new Result(StandardCharsets.UTF_16LE, 2);
+        }
+        if (length >= 2 && (data[0] & 0xFF) == 0xFE && (data[1] & 0xFF) == 0xFF) {
+            return new Result(StandardCharsets.UTF_16BE, 2);
+        }
+        
+        int highBytes = 0;
+        for (int i = 0; i < length; i++) {
+            if (data[i] < 0) {
+                highBytes++;
+            }
+        }
+        if (highBytes == 0) {
+            return new Result(StandardCharsets.UTF_8, 0);
+        }
+        
+        int utf8Errors = countUtf8Errors(data, length, truncated);
+        if (utf8Errors == 0) {
+            return new Result(StandardCharsets.UTF_8, 0);
+        }
+        int gbkErrors = countGbkErrors(data, length, truncated);
+        if (gbkErrors == 0) {
+            return new Result(GBK, 0);
+        }
+        
+        // 两者都有错误时取错误较少的一个；错误太多说明既不是UTF-8也不是GBK，按单字节编码处理
+        int errors = Math.min(utf8Errors, gbkErrors);
+        if (errors * 20 > highBytes) {
+            return new Result(StandardCharsets.ISO_8859_1, 0);
+        }
+        return new Result(gbkErrors < utf8Errors ? GBK : StandardCharsets.UTF_8, 0);
+    }
+    
+    // 严格的UTF-8校验，返回非法序列的数量（拒绝超长编码和代理区）
+    static int countUtf8Errors(byte[] data, int length, boolean truncated) {
+        int errors = 0;
+        int i = 0;
+        while (i < length) {
+            int b = data[i] & 0xFF;
+            if (b < 0x80) {
+                i++;
+                continue;
+            }
+            int needed;
+            int min;
+            if (b >= 0xC2 && b <= 0xDF) {
+                needed = 1;
+                min = 0x80;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                needed = 2;
+                min = 0x800;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                needed = 3;
+                min = 0x10000;
+            } else {
+                errors++;
+                i++;
+                continue;
+            }
+            if (i + needed >= length) {
+                // 数据末尾的多字节字符不完整；截断的样本中只要剩余字节都是后续字节就认为合法
+                boolean valid = truncated;
+                for (int k = i + 1; k < length; k++) {
+                    valid &= (data[k] & 0xC0) == 0x80;
+                }
+                if (!valid) {
+                    errors++;
+                }
+                break;
+            }
+            int codePoint = b & (0x3F >> needed);
+            boolean valid = true;
+            for (int k = 1; k <= needed; k++) {
+                int next = data[i + k] & 0xFF;
+                if ((next & 0xC0) != 0x80) {
+                    valid = false;
+                    break;
+                }
+                codePoint = (codePoint << 6) | (next & 0x3F);
+            }
+            if (!valid || codePoint < min || codePoint > 0x10FFFF || (codePoint >= 0xD800 && codePoint <= 0xDFFF)) {
+                errors++;
+                i++;
+            } else {
+                i += needed + 1;
+            }
+        }
+        return errors;
+    }
+    
+    // GBK双字节校验：首字节0x81-0xFE，尾字节0x40-0xFE且不为0x7F，返回非法字节对的数量
+    static int countGbkErrors(byte[] data, int length, boolean truncated) {
+        int errors = 0;
+        int i = 0;
+        while (i < length) {
+            int b = data[i] & 0xFF;
+            if (b < 0x80) {
+                i++;
+            } else if (b >= 0x81 && b <= 0xFE) {
+                if (i + 1 >= length) {
+                    if (!truncated) {
+                        errors++;
+                    }
+                    break;
+                }
+                int next = data[i + 1] & 0xFF;
+                if (next >= 0x40 && next <= 0xFE && next != 0x7F) {
+                    i += 2;
+                } else {
+                    errors++;
+                    i++;
+                }
+            } else {
+                errors++;
+                i++;
+            }
+        }
+        return errors;
+    }
+    
+    // 读取整个文件一次，检测编码后从同一缓冲区解码
+    static String readText(File file) throws IOException {
+        byte[] data = Files.readAllBytes(file.toPath());
+        Result result = detect(data, data.length, false);
+        System.out.println("检测到文件编码: " + result.charset.name() + " (" + file.getName() + ")");
+        return new String(data, result.bomLength, data.length - result.bomLength, result.charset);
+    }
+}
+
+// 流式导入：按块读取、解析问题文件，每块先写入题库文件再交给界面，内存占用只与块大小有关
+// 编码根据文件开头的样本检测，样本字节会直接接着用于解码，整个文件只读取一次
+// 替换模式写入临时文件，结束时原子替换题库；合并模式按哈希去重后直接追加到题库末尾
+class QuestionImporter {
+    // 每解析出一块问题时在导入线程中调用；回调可以阻塞以限制尚未被界面处理的块数
+    interface Listener {
+        void onChunk(ArrayList<String> chunk, long bytesRead, long totalBytes) throws IOException, InterruptedException;
+    }
+    
+    static final int CHUNK_LINES = 5000;
+    static final int SAMPLE_SIZE = 64 * 1024;
+    
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private volatile long importedCount;
+    private volatile long skippedCount;
+    // 合并模式下已有问题的哈希集合，为null表示替换模式
+    private QuestionHashSet mergeHashes;
+    
+    // 切换为合并模式：只追加hashes中不存在的问题，新问题的哈希会加入hashes
+    public void setMergeInto(QuestionHashSet hashes) {
+        this.mergeHashes = hashes;
+    }
+    
+    public boolean isMerge() {
+        return mergeHashes != null;
+    }
+    
+    // 合并模式下因重复而跳过的问题数
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+    
+    public void cancel() {
+        cancelled.set(true);
+    }
+    
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+    
+    public long getImportedCount() {
+        return importedCount;
+    }
+    
+    // 把source导入到target，返回新加入的问题数；取消时保留已导入的部分
+    // 替换模式下没有解析出任何问题时target保持不变；target为null时不写文件，由回调保存每一块
+    public long run(File source, File target, Listener listener) throws IOException, InterruptedException {
+        long totalBytes = source.length();
+        boolean merge = mergeHashes != null;
+        File tempFile = target != null ? new File(target.getPath() + ".importing") : null;
+        File output = merge ? target : tempFile;
+        long[] bytesRead = new long[1];
+        
+        // 追加前确保题库文件以换行结尾
+        if (merge && target != null && target.length() > 0) {
+            try (RandomAccessFile existing = new RandomAccessFile(target, "rw")) {
+                existing.seek(existing.length() - 1);
+                if (existing.read() != '\n') {
+                    existing.write('\n');
+                }
+            }
+        }
+        
+        try (InputStream raw = new FileInputStream(source)) {
+            InputStream counting = new FilterInputStream(raw) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        bytesRead[0]++;
+                    }
+                    return b;
+                }
+                
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int n = super.read(buffer, offset, length);
+                    if (n > 0) {
+                        bytesRead[0] += n;
+                    }
+                    return n;
+                }
+            };
+            
+            // 用文件开头的样本检测编码，样本之后的部分接着从同一个流读取
+            byte[] sample = counting.readNBytes(SAMPLE_SIZE);
+            CharsetDetector.Result detected = CharsetDetector.detect(sample, sample.length, sample.length < totalBytes);
+            System.out.println("检测到文件编码: " + detected.charset.name() + " (" + source.getName() + ")");
+            InputStream content = new SequenceInputStream(
+                new ByteArrayInputStream(sample, detected.bomLength, sample.length - detected.bomLength), counting);
+            
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(content, detected.charset), 64 * 1024);
+                 BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                     output != null ? new FileOutputStream(output, merge) : OutputStream.nullOutputStream(), StandardCharsets.UTF_8))) {
+                ArrayList<String> chunk = new ArrayList<>(CHUNK_LINES);
+                String line;
+                while (!cancelled.get() && (line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.indexOf('\uFFFD') >= 0) {
+                        continue;
+                    }
+                    // 分类标题原样写入题库文件，之前解析出的问题先提交以保持顺序
+                    if (line.startsWith("#")) {
+                        if (!chunk.isEmpty()) {
+                            commitChunk(chunk, writer, listener, bytesRead[0], totalBytes);
+                            chunk = new ArrayList<>(CHUNK_LINES);
+                        }
+                        writer.write(line);
+                        writer.newLine();
+                        continue;
+                    }
+                    if (merge && !mergeHashes.add(QuestionHashSet.hash(line))) {
+                        skippedCount++;
+                        continue;
+                    }
+                    chunk.add(line);
+                    if (chunk.size() >= CHUNK_LINES) {
+                        commitChunk(chunk, writer, listener, bytesRead[0], totalBytes);
+                        chunk = new ArrayList<>(CHUNK_LINES);
+                    }
+                }
+                // 最后一块（包括取消时已解析的部分）同样提交，保证哈希集合与题库一致
+                if (!chunk.isEmpty()) {
+                    commitChunk(chunk, writer, listener, bytesRead[0], totalBytes);
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            if (merge) {
+                // 合并模式直接追加到题库，已提交的部分已经在题库中
+                throw e;
+            }
+            if (tempFile == null) {
+                throw e;
+            }
+            if (importedCount > 0 && tempFile.exists()) {
+                // 已有部分问题交给了界面，保留这部分以保持题库文件与界面一致
+                Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                System.err.println("导入中断，保留已导入的 " + importedCount + " 个问题: " + e.getMessage());
+            } else {
+                tempFile.delete();
+            }
+            throw e;
+        }
+        
+        if (merge || tempFile == null) {
+            return importedCount;
+        }
+        if (importedCount == 0) {
+            tempFile.delete();
+            return 0;
+        }
+        Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return importedCount;
+    }
+    
+    private void commitChunk(ArrayList<String> chunk, BufferedWriter writer, Listener listener,
+                             long bytesRead, long totalBytes) throws IOException, InterruptedException {
+        for (String question : chunk) {
+            writer.write(question);
+            writer.newLine();
+        }
+        writer.flush();
+        importedCount += chunk.size();
+        listener.onChunk(chunk, bytesRead, totalBytes);
+    }
+}
+
+// 问题去重用的64位哈希集合：开放寻址（线性探测）的long数组，不为每个元素分配对象
+// 持久化到旁路文件，文件头记录对应题库文件的长度和修改时间，题库被改动后自动失效
+class QuestionHashSet {
+    static final int MAGIC = 0x54504853; // "TPHS"
+    static final int VERSION = 1;
+    
+    private long[] table;
+    private int size;
+    
+    public QuestionHashSet(int expected) {
+        int capacity = 16;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        table = new long[capacity];
+    }
+    
+    // 规范化后计算64位哈希：去掉首尾空白、连续空白视为一个空格、逐个字符按Character.toLowerCase忽略大小写
+    // （Unicode大小写，不只是A-Z，也包括全角字母、希腊字母等），不创建中间字符串；哈希会持久化，规则改变时须升级文件版本
+    static long hash(String question) {
+        long h = 0xcbf29ce484222325L;
+        int start = 0;
+        int end = question.length();
+        while (start < end && Character.isWhitespace(question.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(question.charAt(end - 1))) {
+            end--;
+        }
+        boolean pendingSpace = false;
+        for (int i = start; i < end; i++) {
+            char c = question.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = true;
+                continue;
+            }
+            if (pendingSpace) {
+                h = (h ^ ' ') * 0x100000001b3L;
+                pendingSpace = false;
+            }
+            h = (h ^ Character.toLowerCase(c)) * 0x100000001b3L;
+        }
+        // 最后做一次混合，让低位分布更均匀
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        // 0 用作空槽标记
+        return h == 0 ? 1 : h;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    // 加入一个哈希，已存在时返回false
+    public boolean add(long hash) {
+        if ((size + 1) * 2 > table.length) {
+            resize(table.length * 2);
+        }
+        int mask = table.length - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (table[slot] != 0) {
+            if (table[slot] == hash) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = hash;
+        size++;
+        return true;
+    }
+    
+    public boolean contains(long hash) {
+        int mask = table.length - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (table[slot] != 0) {
+            if (table[slot] == hash) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+    
+    private void resize(int capacity) {
+        long[] old = table;
+        table = new long[capacity];
+        size = 0;
+        for (long hash : old) {
+            if (hash != 0) {
+                add(hash);
+            }
+        }
+    }
+    
+    // 保存到旁路文件，记录对应题库文件当前的长度和修改时间
+    public void save(File file, File source) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(source.length());
+            out.writeLong(source.lastModified());
+            out.writeInt(size);
+            out.writeInt(table.length);
+            for (long hash : table) {
+                out.writeLong(hash);
+            }
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    // 从旁路文件加载；文件不存在、损坏或与题库文件不一致时返回null
+    public static QuestionHashSet load(File file, File source) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readLong() != source.length() || in.readLong() != source.lastModified()) {
+                return null;
+            }
+            int size = in.readInt();
+            int capacity = in.readInt();
+            if (Integer.bitCount(capacity) != 1 || size * 2 > capacity) {
+                return null;
+            }
+            QuestionHashSet set = new QuestionHashSet(0);
+            set.table = new long[capacity];
+            for (int i = 0; i < capacity; i++) {
+                set.table[i] = in.readLong();
+            }
+            set.size = size;
+            return set;
+        } catch (IOException e) {
+            System.err.println("读取问题哈希文件失败: " + e.getMessage());
+            return null;
+        }
+    }
+}
+
+// 紧凑题库：所有问题的UTF-8字节连续存放在一个字节数组里，另用两个int数组记录每个问题的起点和长度
+// 每个问题只有8字节的索引开销，没有String对象；只在显示或抽取某个问题时才解码成String
+// 删除只移动索引，被删除问题的字节超过一半时再整理字节数组
+// snapshot()生成与题库共享数组的不可变快照：追加只写入快照范围之外，删除和清空前才复制仍被快照引用的数组
+class QuestionBank extends AbstractList<String> implements RandomAccess {
+    private static final int MAX_ARENA = Integer.MAX_VALUE - 8;
+    
+    private byte[] arena;
+    private int used;
+    private int[] starts;
+    private int[] lengths;
+    private int count;
+    private int garbage;
+    // 快照不可修改
+    private boolean frozen;
+    // 数组仍被已发布的快照引用
+    private boolean indexShared;
+    private boolean arenaShared;
+    // 删除或清空时递增：两个快照的structure相同时，较新的快照只是在较旧的快照后面追加了问题
+    private int structure;
+    private long version;
+    
+    public QuestionBank() {
+        this(1024, 64 * 1024);
+    }
+    
+    private QuestionBank(int capacity, int arenaCapacity) {
+        starts = new int[capacity];
+        lengths = new int[capacity];
+        arena = new byte[arenaCapacity];
+    }
+    
+    @Override
+    public int size() {
+        return count;
+    }
+    
+    @Override
+    public String get(int index) {
+        Objects.checkIndex(index, count);
+        return new String(arena, starts[index], lengths[index], StandardCharsets.UTF_8);
+    }
+    
+    @Override
+    public boolean add(String question) {
+        byte[] bytes = question.getBytes(StandardCharsets.UTF_8);
+        add(bytes, 0, bytes.length);
+        return true;
+    }
+    
+    // 直接加入一段UTF-8字节，不经过String
+    public void add(byte[] bytes, int offset, int length) {
+        checkMutable();
+        ensureArena(length);
+        if (count == starts.length) {
+            int capacity = starts.length + (starts.length >> 1);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            indexShared = false;
+        }
+        System.arraycopy(bytes, offset, arena, used, length);
+        starts[count] = used;
+        lengths[count] = length;
+        used += length;
+        count++;
+        modCount++;
+    }
+    
+    // 第index个问题的UTF-8字节是否与给定字节相同
+    public boolean bytesEqual(int index, byte[] bytes) {
+        return lengths[index] == bytes.length
+            && Arrays.equals(arena, starts[index], starts[index] + lengths[index], bytes, 0, bytes.length);
+    }
+    
+    @Override
+    public String remove(int index) {
+        checkMutable();
+        String question = get(index);
+        unshareIndex();
+        structure++;
+        garbage += lengths[index];
+        System.arraycopy(starts, index + 1, starts, index, count - index - 1);
+        System.arraycopy(lengths, index + 1, lengths, index, count - index - 1);
+        count--;
+        modCount++;
+        if (garbage > used / 2) {
+            compact();
+        }
+        return question;
+    }
+    
+    // 一次遍历删除所有满足条件的问题，不逐个移动索引
+    @Override
+    public boolean removeIf(java.util.function.Predicate<? super String> filter) {
+        checkMutable();
+        unshareIndex();
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (filter.test(get(i))) {
+                garbage += lengths[i];
+            } else {
+                starts[kept] = starts[i];
+                lengths[kept] = lengths[i];
+                kept++;
+            }
+        }
+        boolean removed = kept < count;
+        if (removed) {
+            count = kept;
+            structure++;
+            modCount++;
+            if (garbage > used / 2) {
+                compact();
+            }
+        }
+        return removed;
+    }
+    
+    @Override
+    public void clear() {
+        checkMutable();
+        // 快照仍引用旧数组时换用新数组，之后的追加不能覆盖快照中的字节
+        if (indexShared || arenaShared) {
+            starts = new int[1024];
+            lengths = new int[1024];
+            arena = new byte[64 * 1024];
+            indexShared = false;
+            arenaShared = false;
+        }
+        count = 0;
+        used = 0;
+        garbage = 0;
+        structure++;
+        modCount++;
+    }
+    
+    // 直接比较UTF-8字节查找，不解码任何问题
+    @Override
+    public int indexOf(Object o) {
+        if (!(o instanceof String)) {
+            return -1;
+        }
+        byte[] bytes = ((String) o).getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < count; i++) {
+            if (bytesEqual(i, bytes)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+    
+    // 生成与本题库共享数组的不可变快照（不复制），可以安全地交给其他线程读取
+    QuestionBank snapshot(long version) {
+        QuestionBank snapshot = new QuestionBank(0, 0);
+        snapshot.arena = arena;
+        snapshot.starts = starts;
+        snapshot.lengths = lengths;
+        snapshot.count = count;
+        snapshot.used = used;
+        snapshot.garbage = garbage;
+        snapshot.structure = structure;
+        snapshot.version = version;
+        snapshot.frozen = true;
+        indexShared = true;
+        arenaShared = true;
+        return snapshot;
+    }
+    
+    long version() {
+        return version;
+    }
+    
+    int structure() {
+        return structure;
+    }
+    
+    // 按行写出所有问题的UTF-8字节，不解码
+    public void writeTo(OutputStream out) throws IOException {
+        for (int i = 0; i < count; i++) {
+            out.write(arena, starts[i], lengths[i]);
+            out.write('\n');
+        }
+    }
+    
+    // 题库占用的字节数（字节数组加索引）
+    public long memoryBytes() {
+        return arena.length + 8L * starts.length;
+    }
+    
+    private void ensureArena(int extra) {
+        if (used + extra <= arena.length) {
+            return;
+        }
+        if (garbage > 0) {
+            compact();
+            if (used + extra <= arena.length) {
+                return;
+            }
+        }
+        long needed = (long) used + extra;
+        if (needed > MAX_ARENA) {
+            throw new IllegalStateException("题库超过最大容量（2GB）");
+        }
+        long capacity = Math.max(needed, arena.length + ((long) arena.length >> 1));
+        arena = Arrays.copyOf(arena, (int) Math.min(capacity, MAX_ARENA));
+        arenaShared = false;
+    }
+    
+    private void checkMutable() {
+        if (frozen) {
+            throw new UnsupportedOperationException("题库快照不可修改");
+        }
+    }
+    
+    // 原地修改索引前复制仍被快照引用的索引数组
+    private void unshareIndex() {
+        if (indexShared) {
+            starts = starts.clone();
+            lengths = lengths.clone();
+            indexShared = false;
+        }
+    }
+    
+    // 按现有顺序把存活问题的字节紧密排列，回收被删除问题占用的空间（写入新数组，不影响快照）
+    private void compact() {
+        unshareIndex();
+        byte[] packed = new byte[Math.max(arena.length, 16)];
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(arena, starts[i], packed, position, lengths[i]);
+            starts[i] = position;
+            position += lengths[i];
+        }
+        arena = packed;
+        arenaShared = false;
+        used = position;
+        garbage = 0;
+    }
+}
+
+// 题库的写时复制发布：读者通过原子引用取得当前的不可变快照，不加锁，也不会看到清空或修改到一半的题库
+// 所有修改在写锁内作用于私有的可变题库，完成后生成新快照一次替换；只追加时新旧快照共享数组，不复制
+class QuestionStore {
+    enum Change { APPENDED, REMOVED, REPLACED }
+    
+    // 新快照发布后在写者线程中调用（持有写锁）；index为追加的起始位置或被删除的位置
+    interface Listener {
+        void published(QuestionBank snapshot, Change change, int index);
+        
+        // 一次删除多个问题后调用，removed为被删除问题在删除前题库中的下标；默认按整体替换处理
+        default void removedAll(QuestionBank snapshot, BitSet removed) {
+            published(snapshot, Change.REPLACED, 0);
+        }
+    }
+    
+    private final QuestionBank builder = new QuestionBank();
+    private final AtomicReference<QuestionBank> current;
+    private final ArrayList<Listener> listeners = new ArrayList<>();
+    private long version;
+    
+    public QuestionStore() {
+        current = new AtomicReference<>(builder.snapshot(0));
+    }
+    
+    // 当前快照，任何线程都可以直接读取
+    public QuestionBank snapshot() {
+        return current.get();
+    }
+    
+    // 注册监听器并返回注册时的快照，之后的每个快照都会通知给监听器
+    public synchronized QuestionBank addListener(Listener listener) {
+        listeners.add(listener);
+        return current.get();
+    }
+    
+    public synchronized QuestionBank addAll(Collection<String> questions) {
+        int from = builder.size();
+        builder.addAll(questions);
+        return builder.size() > from ? publish(Change.APPENDED, from) : current.get();
+    }
+    
+    // 用给定问题替换整个题库
+    public synchronized QuestionBank replaceAll(Collection<String> questions) {
+        builder.clear();
+        builder.addAll(questions);
+        return publish(Change.REPLACED, 0);
+    }
+    
+    public synchronized QuestionBank clear() {
+        builder.clear();
+        return publish(Change.REPLACED, 0);
+    }
+    
+    // 删除basis中第index个问题；basis之后题库有过追加以外的修改时位置可能已经变化，不删除并返回null
+    public synchronized QuestionBank remove(int index, QuestionBank basis) {
+        if (basis.structure() != builder.structure() || index < 0 || index >= builder.size()) {
+            return null;
+        }
+        builder.remove(index);
+        return publish(Change.REMOVED, index);
+    }
+    
+    // 删除所有满足条件的问题：删除较少时逐个发布以便列表逐行更新，较多时一次遍历删除后把删除的下标一起通知
+    public synchronized void removeIf(java.util.function.Predicate<String> filter, int expected) {
+        if (expected <= 100) {
+            for (int i = builder.size() - 1; i >= 0; i--) {
+                if (filter.test(builder.get(i))) {
+                    builder.remove(i);
+                    publish(Change.REMOVED, i);
+                }
+            }
+            return;
+        }
+        // QuestionBank.removeIf按下标顺序对每个问题调用一次条件
+        BitSet removed = new BitSet();
+        int[] position = { 0 };
+        boolean changed = builder.removeIf(question -> {
+            boolean remove = filter.test(question);
+            if (remove) {
+                removed.set(position[0]);
+            }
+            position[0]++;
+            return remove;
+        });
+        if (changed) {
+            QuestionBank snapshot = builder.snapshot(++version);
+            current.set(snapshot);
+            for (Listener listener : listeners) {
+                listener.removedAll(snapshot, removed);
+            }
+        }
+    }
+    
+    private QuestionBank publish(Change change, int index) {
+        QuestionBank snapshot = builder.snapshot(++version);
+        current.set(snapshot);
+        for (Listener listener : listeners) {
+            listener.published(snapshot, change, index);
+        }
+        return snapshot;
+    }
+}
+
+// 首页的抽题方式，由 selection.mode 配置选择
+interface QuestionSelector {
+    // 下一个要显示的问题，题库为空时返回null
+    String next();
+    
+    // 问题的回答已保存（time为保存时间），按回答历史抽题的方式据此调整
+    default void answered(String question, long time) {
+    }
+    
+    default void close() {
+    }
+}
+
+// 洗牌袋：按题库下标的随机排列依次抽题，一轮抽完所有问题之前不会重复，新一轮的第一题也不会是上一轮的最后一题
+// 排列在抽题时逐步打乱（增量Fisher–Yates）：order[0, remaining)是本轮还没抽到的下标，每次抽取O(1)且不分配对象
+// 监听题库的修改：追加的问题直接放入本轮待抽部分，删除只移出对应下标（批量删除一次遍历压缩），整体替换后从新的一轮开始
+class QuestionShuffleBag implements QuestionSelector, QuestionStore.Listener {
+    private QuestionBank bank;
+    private int[] order;
+    private int remaining;
+    // 最近一次抽到的下标，没有时为-1
+    private int last = -1;
+    
+    public QuestionShuffleBag(QuestionStore store) {
+        order = new int[16];
+        reset(store.addListener(this));
+    }
+    
+    @Override
+    public synchronized String next() {
+        int count = bank.size();
+        if (count == 0) {
+            return null;
+        }
+        int bound = remaining;
+        if (remaining == 0) {
+            remaining = count;
+            bound = count;
+            if (count > 1 && last >= 0) {
+                swap(positionOf(last), count - 1);
+                bound = count - 1;
+            }
+        }
+        int position = ThreadLocalRandom.current().nextInt(bound);
+        int index = order[position];
+        remaining--;
+        order[position] = order[remaining];
+        order[remaining] = index;
+        last = index;
+        return bank.get(index);
+    }
+    
+    // 在发布快照的线程中按顺序调用，与抽取互斥
+    @Override
+    public synchronized void published(QuestionBank snapshot, QuestionStore.Change change, int index) {
+        int count = bank.size();
+        if (change == QuestionStore.Change.APPENDED) {
+            if (order.length < snapshot.size()) {
+                order = Arrays.copyOf(order, Math.max(snapshot.size(), order.length + (order.length >> 1)));
+            }
+            // 新问题放到待抽部分的末尾，原来在那里的已抽下标移到整个排列末尾
+            for (int i = count; i < snapshot.size(); i++) {
+                order[i] = order[remaining];
+                order[remaining++] = i;
+            }
+            bank = snapshot;
+        } else if (change == QuestionStore.Change.REMOVED) {
+            removeIndex(index, count);
+            bank = snapshot;
+        } else {
+            reset(snapshot);
+        }
+    }
+    
+    // 批量删除：一次遍历压缩排列，本轮已抽和未抽的部分各自保持，下标按之前被删除的个数前移
+    @Override
+    public synchronized void removedAll(QuestionBank snapshot, BitSet removed) {
+        int count = bank.size();
+        int[] shift = new int[count];
+        int removedBefore = 0;
+        for (int i = 0; i < count; i++) {
+            shift[i] = removedBefore;
+            if (removed.get(i)) {
+                removedBefore++;
+            }
+        }
+        int kept = 0;
+        int keptRemaining = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == remaining) {
+                keptRemaining = kept;
+            }
+            int index = order[i];
+            if (!removed.get(index)) {
+                order[kept++] = index - shift[index];
+            }
+        }
+        remaining = remaining >= count ? kept : keptRemaining;
+        last = last >= 0 && !removed.get(last) ? last - shift[last] : -1;
+        bank = snapshot;
+    }
+    
+    // 移出被删除的下标，后面的下标依次减一
+    private void removeIndex(int removed, int count) {
+        int position = -1;
+        for (int i = 0; i < count; i++) {
+            if (order[i] == removed) {
+                position = i;
+            } else if (order[i] > removed) {
+                order[i]--;
+            }
+        }
+        if (position < remaining) {
+            remaining--;
+            order[position] = order[remaining];
+            position = remaining;
+        }
+        order[position] = order[count - 1];
+        if (last == removed) {
+            last = -1;
+        } else if (last > removed) {
+            last--;
+        }
+    }
+    
+    private void reset(QuestionBank snapshot) {
+        bank = snapshot;
+        int count = snapshot.size();
+        if (order.length < count) {
+            order = new int[count];
+        }
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        remaining = count;
+        last = -1;
+    }
+    
+    private int positionOf(int index) {
+        for (int i = 0; i < bank.size(); i++) {
+            if (order[i] == index) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private void swap(int i, int j) {
+        int value = order[i];
+        order[i] = order[j];
+        order[j] = value;
+    }
+}
+
+// 加权抽题（Vose别名法）：每个问题的权重由权重文件中的规则决定，抽取时一个随机数选格子、再按格子的概率取本身或别名，O(1)
+// 别名表只用基本类型数组，与建表时的题库快照一起整体发布；题库或权重文件变化后在后台线程O(n)重建，期间继续用旧表抽取
+// 权重文件每行 "权重 文本"，题目或它所在的任一级分类标题包含该文本时乘以这个权重（如 "×3 哲学"、"0.5 工作"），
+// 不以数字或×开头的行是注释
+class QuestionAliasSampler implements QuestionSelector, QuestionStore.Listener {
+    // 建好的别名表：第i格以probability[i]的概率取问题i，否则取alias[i]
+    private static final class Table {
+        final QuestionBank bank;
+        final double[] probability;
+        final int[] alias;
+        
+        Table(QuestionBank bank, double[] probability, int[] alias) {
+            this.bank = bank;
+            this.probability = probability;
+            this.alias = alias;
+        }
+    }
+    
+    private static final class Rule {
+        final String text;
+        final double weight;
+        
+        Rule(String text, double weight) {
+            this.text = text;
+            this.weight = weight;
+        }
+    }
+    
+    private final File weightFile;
+    // 题库文件，分类标题从这里读取；为null时只按题目匹配
+    private final File questionFile;
+    private final QuestionStore store;
+    private final ExecutorService builder = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "alias-builder");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean rebuildPending = new AtomicBoolean();
+    private volatile Table table;
+    // 只在建表线程中访问（构造时除外）
+    private java.util.List<Rule> rules = new ArrayList<>();
+    // 已读取的权重文件修改时间，权重文件变化后置为-1使下次建表重新读取
+    private volatile long rulesModified = -1;
+    // 只在建表线程中访问（构造时除外）：题库文件中的分类，以及读取时题库文件的修改时间
+    private QuestionSections sections;
+    private volatile long sectionsModified = -1;
+    
+    public QuestionAliasSampler(QuestionStore store, File weightFile, File questionFile) {
+        this.store = store;
+        this.weightFile = weightFile;
+        this.questionFile = questionFile;
+        loadRules();
+        loadSections();
+        table = build(store.addListener(this));
+    }
+    
+    @Override
+    public String next() {
+        Table current = table;
+        int count = current.alias.length;
+        if (count == 0) {
+            return null;
+        }
+        double u = ThreadLocalRandom.current().nextDouble() * count;
+        int column = (int) u;
+        if (column >= count) {
+            column = count - 1;
+        }
+        return current.bank.get(u - column < current.probability[column] ? column : current.alias[column]);
+    }
+    
+    @Override
+    public void published(QuestionBank snapshot, QuestionStore.Change change, int index) {
+        rebuild();
+    }
+    
+    // 权重文件变化后调用
+    public void weightsChanged() {
+        rulesModified = -1;
+        rebuild();
+    }
+    
+    // 题库文件变化后调用：只改了分类标题时题库不变，不会收到新快照
+    public void questionFileChanged() {
+        sectionsModified = -1;
+        rebuild();
+    }
+    
+    // 已有重建在排队时不再提交，排队的重建总是使用最新的题库快照
+    private void rebuild() {
+        if (rebuildPending.compareAndSet(false, true)) {
+            builder.execute(() -> {
+                rebuildPending.set(false);
+                if (weightFile.lastModified() != rulesModified) {
+                    loadRules();
+                }
+                if (questionFile != null && questionFile.lastModified() != sectionsModified) {
+                    loadSections();
+                }
+                table = build(store.snapshot());
+            });
+        }
+    }
+    
+    @Override
+    public void close() {
+        builder.shutdownNow();
+    }
+    
+    private void loadRules() {
+        ArrayList<Rule> loaded = new ArrayList<>();
+        rulesModified = weightFile.lastModified();
+        if (weightFile.exists()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(weightFile), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Rule rule = parseRule(line.trim());
+                    if (rule != null) {
+                        loaded.add(rule);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("读取问题权重失败: " + e.getMessage());
+            }
+        }
+        rules = loaded;
+    }
+    
+    // 没有权重规则时不读取分类标题：所有权重都是1
+    private void loadSections() {
+        if (questionFile == null || rules.isEmpty()) {
+            sections = null;
+            return;
+        }
+        sectionsModified = questionFile.lastModified();
+        try {
+            QuestionSections loaded = QuestionSections.read(questionFile);
+            sections = loaded.isEmpty() ? null : loaded;
+        } catch (IOException e) {
+            System.err.println("读取题库分类失败: " + e.getMessage());
+            sections = null;
+        }
+    }
+    
+    private static Rule parseRule(String line) {
+        int start = line.startsWith("×") || line.startsWith("x") || line.startsWith("X") ? 1 : 0;
+        int end = start;
+        while (end < line.length() && (Character.isDigit(line.charAt(end)) || line.charAt(end) == '.')) {
+            end++;
+        }
+        if (end == start || end == line.length() || !Character.isWhitespace(line.charAt(end))) {
+            return null;
+        }
+        String text = line.substring(end).trim();
+        try {
+            double weight = Double.parseDouble(line.substring(start, end));
+            return text.isEmpty() ? null : new Rule(text, weight);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
+    // 每条规则最多乘一次：题目本身或任一级分类标题包含规则的文本即可
+    private double weight(String question) {
+        if (rules.isEmpty()) {
+            return 1;
+        }
+        String[] path = sections != null ? sections.path(sections.sectionOf(question)) : null;
+        double weight = 1;
+        for (Rule rule : rules) {
+            if (question.contains(rule.text) || inSection(path, rule.text)) {
+                weight *= rule.weight;
+            }
+        }
+        return weight;
+    }
+    
+    private static boolean inSection(String[] path, String text) {
+        if (path != null) {
+            for (String title : path) {
+                if (title != null && title.contains(text)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    // Vose别名法：概率乘以n后分成小于1和不小于1两组，每次用一个大格补满一个小格
+    private Table build(QuestionBank bank) {
+        int count = bank.size();
+        double[] probability = new double[count];
+        int[] alias = new int[count];
+        double total = 0;
+        for (int i = 0; i < count; i++) {
+            probability[i] = weight(bank.get(i));
+            total += probability[i];
+        }
+        if (count == 0) {
+            return new Table(bank, probability, alias);
+        }
+        if (!(total > 0) || Double.isInfinite(total)) {
+            // 权重全为0或无效时退回均匀抽取
+            Arrays.fill(probability, 1);
+            total = count;
+        }
+        int[] small = new int[count];
+        int[] large = new int[count];
+        int smallSize = 0;
+        int largeSize = 0;
+        for (int i = 0; i < count; i++) {
+            probability[i] = probability[i] * count / total;
+            if (probability[i] < 1) {
+                small[smallSize++] = i;
+            } else {
+                large[largeSize++] = i;
+            }
+        }
+        while (smallSize > 0 && largeSize > 0) {
+            int less = small[--smallSize];
+            int more = large[--largeSize];
+            alias[less] = more;
+            probability[more] = probability[more] + probability[less] - 1;
+            if (probability[more] < 1) {
+                small[smallSize++] = more;
+            } else {
+                large[largeSize++] = more;
+            }
+        }
+        // 剩下的格子只因舍入误差偏离1
+        while (largeSize > 0) {
+            int more = large[--largeSize];
+            probability[more] = 1;
+            alias[more] = more;
+        }
+        while (smallSize > 0) {
+            int less = small[--smallSize];
+            probability[less] = 1;
+            alias[less] = less;
+        }
+        return new Table(bank, probability, alias);
+    }
+}
+
+// 间隔重复：问题第n次回答后间隔约2.5^(n-1)天再复习（不超过上限），到期时间由回答次数和最近一次回答时间决定
+// 已回答的问题在按到期时间排序的最小堆中，未回答的问题在按上次显示顺序排序的最小堆中（从未显示的随机排序）；
+// 有到期的复习题时先取最早到期的，否则取最久没有显示过的新题，新题也没有时取最早到期的复习题
+// 两个堆共用按题库下标存放的键和堆中位置，取题、跳过和回答后的调整都是O(log n)，不扫描历史记录
+// 回答状态保存在旁路文件中：[int 魔数][int 版本]，每次回答追加 [long 问题哈希][int 回答次数][long 回答时间]，
+// 同一问题以最后一条为准；文件不存在时用启动时已加载的历史记录建立，追加的过期记录过多时整体重写
+class QuestionScheduler implements QuestionSelector, QuestionStore.Listener {
+    static final int MAGIC = 0x54505253; // "TPRS"
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_SIZE = 20;
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    
+    private final File file;
+    private final long maxInterval;
+    // 显示后没有回答的复习题推迟这么久再出现
+    private final long skipDelay;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "schedule-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // 问题哈希 -> 回答次数和最近回答时间（开放寻址，哈希0表示空槽）
+    private long[] reviewHashes = new long[1024];
+    private int[] reviewCounts = new int[1024];
+    private long[] reviewTimes = new long[1024];
+    private int reviewSize;
+    private int fileRecords;
+    private QuestionBank bank;
+    // 问题哈希 -> 题库下标（开放寻址，哈希0表示空槽；重复的问题只记第一个），回答时不必扫描题库
+    private long[] indexHashes = new long[16];
+    private int[] indexValues = new int[16];
+    private int indexSize;
+    // 按题库下标：问题哈希、堆中的键，以及在堆中的位置（已回答的堆为p，未回答的堆为-p-1）
+    private long[] hashes = new long[16];
+    private long[] keys = new long[16];
+    private int[] positions = new int[16];
+    private int[] reviews = new int[16];
+    private int reviewHeapSize;
+    private int[] fresh = new int[16];
+    private int freshSize;
+    // 最近一次取出的下标，回答通常针对它，不必查找
+    private int current = -1;
+    // 新题的显示顺序号，显示过的新题按它排在从未显示的新题之后
+    private long shownSequence = 1L << 31;
+    
+    private QuestionScheduler(File file, int maxIntervalDays, int skipMinutes) {
+        this.file = file;
+        this.maxInterval = maxIntervalDays * DAY;
+        this.skipDelay = skipMinutes * 60L * 1000;
+    }
+    
+    // 读取回答状态（文件不存在时扫描history中的全部记录建立）并按题库建立两个堆
+    static QuestionScheduler open(File file, QuestionStore store, HistoryStorage history,
+                                  int maxIntervalDays, int skipMinutes) {
+        QuestionScheduler scheduler = new QuestionScheduler(file, maxIntervalDays, skipMinutes);
+        try {
+            if (!scheduler.load()) {
+                if (history != null) {
+                    scheduler.seed(history);
+                }
+                scheduler.rewrite();
+            } else if (scheduler.fileRecords > scheduler.reviewSize * 2 + 1024) {
+                scheduler.rewrite();
+            }
+        } catch (IOException e) {
+            System.err.println("读取复习计划失败: " + e.getMessage());
+        }
+        synchronized (scheduler) {
+            scheduler.reset(store.addListener(scheduler));
+        }
+        return scheduler;
+    }
+    
+    @Override
+    public synchronized String next() {
+        long now = System.currentTimeMillis();
+        int index;
+        if (reviewHeapSize > 0 && (keys[reviews[0]] <= now || freshSize == 0)) {
+            index = reviews[0];
+            keys[index] = Math.max(keys[index], now) + skipDelay;
+            siftDown(true, 0);
+        } else if (freshSize > 0) {
+            index = fresh[0];
+            keys[index] = ++shownSequence;
+            siftDown(false, 0);
+        } else {
+            return null;
+        }
+        current = index;
+        return bank.get(index);
+    }
+    
+    // 更新回答状态并移到已回答的堆中；状态记录在后台线程追加到文件
+    @Override
+    public synchronized void answered(String question, long time) {
+        long hash = QuestionHashSet.hash(question);
+        int slot = reviewSlot(hash);
+        if (reviewHashes[slot] == 0) {
+            reviewHashes[slot] = hash;
+            reviewSize++;
+        }
+        int count = ++reviewCounts[slot];
+        reviewTimes[slot] = Math.max(reviewTimes[slot], time);
+        long last = reviewTimes[slot];
+        if (reviewSize * 2 > reviewHashes.length) {
+            growReviews();
+        }
+        fileRecords++;
+        writer.execute(() -> append(hash, count, last));
+        
+        int index = current >= 0 && current < bank.size() && hashes[current] == hash ? current : indexOf(hash);
+        if (index >= 0) {
+            removeFromHeap(index);
+            keys[index] = dueTime(count, last);
+            push(true, index);
+        }
+    }
+    
+    // 在发布快照的线程中按顺序调用，与取题互斥
+    @Override
+    public synchronized void published(QuestionBank snapshot, QuestionStore.Change change, int index) {
+        if (change == QuestionStore.Change.APPENDED) {
+            int from = bank.size();
+            bank = snapshot;
+            ensureCapacity(snapshot.size());
+            for (int i = from; i < snapshot.size(); i++) {
+                insert(i);
+            }
+        } else if (change == QuestionStore.Change.REMOVED) {
+            removeIndex(index);
+            bank = snapshot;
+        } else {
+            reset(snapshot);
+        }
+    }
+    
+    // 等待尚未写完的状态记录（退出时调用）
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private long dueTime(int count, long last) {
+        return last + Math.min(maxInterval, (long) (DAY * Math.pow(2.5, count - 1)));
+    }
+    
+    private void reset(QuestionBank snapshot) {
+        bank = snapshot;
+        reviewHeapSize = 0;
+        freshSize = 0;
+        current = -1;
+        int capacity = 16;
+        while (capacity < snapshot.size() * 2) {
+            capacity <<= 1;
+        }
+        indexHashes = new long[capacity];
+        indexValues = new int[capacity];
+        indexSize = 0;
+        ensureCapacity(snapshot.size());
+        for (int i = 0; i < snapshot.size(); i++) {
+            insert(i);
+        }
+    }
+    
+    // 按回答状态把题库第index个问题放入对应的堆
+    private void insert(int index) {
+        long hash = QuestionHashSet.hash(bank.get(index));
+        hashes[index] = hash;
+        putIndex(hash, index);
+        int slot = reviewSlot(hash);
+        if (reviewHashes[slot] != 0) {
+            keys[index] = dueTime(reviewCounts[slot], reviewTimes[slot]);
+            push(true, index);
+        } else {
+            // 从未显示过的新题随机排在所有显示过的新题之前
+            keys[index] = ThreadLocalRandom.current().nextInt() & 0x7fffffffL;
+            push(false, index);
+        }
+    }
+    
+    // 移出被删除的下标，后面的下标依次减一（只移动整数，不重新计算哈希）
+    private void removeIndex(int removed) {
+        removeFromHeap(removed);
+        long hash = hashes[removed];
+        boolean mapped = indexOf(hash) == removed;
+        if (mapped) {
+            deleteIndex(hash);
+        }
+        int count = bank.size();
+        System.arraycopy(hashes, removed + 1, hashes, removed, count - removed - 1);
+        System.arraycopy(keys, removed + 1, keys, removed, count - removed - 1);
+        System.arraycopy(positions, removed + 1, positions, removed, count - removed - 1);
+        for (int i = 0; i < indexValues.length; i++) {
+            if (indexHashes[i] != 0 && indexValues[i] > removed) {
+                indexValues[i]--;
+            }
+        }
+        if (mapped) {
+            // 题库中还有相同的问题时改记它
+            for (int i = removed; i < count - 1; i++) {
+                if (hashes[i] == hash) {
+                    putIndex(hash, i);
+                    break;
+                }
+            }
+        }
+        for (int i = 0; i < reviewHeapSize; i++) {
+            if (reviews[i] > removed) {
+                reviews[i]--;
+            }
+        }
+        for (int i = 0; i < freshSize; i++) {
+            if (fresh[i] > removed) {
+                fresh[i]--;
+            }
+        }
+        if (current == removed) {
+            current = -1;
+        } else if (current > removed) {
+            current--;
+        }
+    }
+    
+    private int indexOf(long hash) {
+        int slot = indexSlot(hash);
+        return indexHashes[slot] != 0 ? indexValues[slot] : -1;
+    }
+    
+    private int indexSlot(long hash) {
+        int mask = indexHashes.length - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (indexHashes[slot] != 0 && indexHashes[slot] != hash) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+    
+    // 已有相同哈希时保留原来的下标
+    private void putIndex(long hash, int index) {
+        int slot = indexSlot(hash);
+        if (indexHashes[slot] != 0) {
+            return;
+        }
+        indexHashes[slot] = hash;
+        indexValues[slot] = index;
+        indexSize++;
+        if (indexSize * 2 > indexHashes.length) {
+            long[] oldHashes = indexHashes;
+            int[] oldValues = indexValues;
+            indexHashes = new long[oldHashes.length * 2];
+            indexValues = new int[oldHashes.length * 2];
+            indexSize = 0;
+            for (int i = 0; i < oldHashes.length; i++) {
+                if (oldHashes[i] != 0) {
+                    putIndex(oldHashes[i], oldValues[i]);
+                }
+            }
+        }
+    }
+    
+    // 线性探测的删除：删除后把同一探测链上后面的元素重新放入
+    private void deleteIndex(long hash) {
+        int mask = indexHashes.length - 1;
+        int slot = indexSlot(hash);
+        if (indexHashes[slot] == 0) {
+            return;
+        }
+        indexHashes[slot] = 0;
+        indexSize--;
+        for (int next = (slot + 1) & mask; indexHashes[next] != 0; next = (next + 1) & mask) {
+            long moved = indexHashes[next];
+            indexHashes[next] = 0;
+            indexSize--;
+            putIndex(moved, indexValues[next]);
+        }
+    }
+    
+    private void ensureCapacity(int count) {
+        if (keys.length >= count) {
+            return;
+        }
+        int capacity = Math.max(count, keys.length + (keys.length >> 1));
+        hashes = Arrays.copyOf(hashes, capacity);
+        keys = Arrays.copyOf(keys, capacity);
+        positions = Arrays.copyOf(positions, capacity);
+        reviews = Arrays.copyOf(reviews, capacity);
+        fresh = Arrays.copyOf(fresh, capacity);
+    }
+    
+    private void push(boolean review, int index) {
+        int position = review ? reviewHeapSize++ : freshSize++;
+        place(review, position, index);
+        siftUp(review, position);
+    }
+    
+    private void removeFromHeap(int index) {
+        boolean review = positions[index] >= 0;
+        int position = review ? positions[index] : -positions[index] - 1;
+        int[] heap = review ? reviews : fresh;
+        int last = review ? --reviewHeapSize : --freshSize;
+        if (position == last) {
+            return;
+        }
+        int moved = heap[last];
+        place(review, position, moved);
+        siftUp(review, position);
+        siftDown(review, review ? positions[moved] : -positions[moved] - 1);
+    }
+    
+    private void place(boolean review, int position, int index) {
+        if (review) {
+            reviews[position] = index;
+            positions[index] = position;
+        } else {
+            fresh[position] = index;
+            positions[index] = -position - 1;
+        }
+    }
+    
+    // 键相同时按下标比较，顺序是确定的
+    private boolean less(int a, int b) {
+        return keys[a] < keys[b] || (keys[a] == keys[b] && a < b);
+    }
+    
+    private void siftUp(boolean review, int position) {
+        int[] heap = review ? reviews : fresh;
+        int index = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (!less(index, heap[parent])) {
+                break;
+            }
+            place(review, position, heap[parent]);
+            position = parent;
+        }
+        place(review, position, index);
+    }
+    
+    private void siftDown(boolean review, int position) {
+        int[] heap = review ? reviews : fresh;
+        int size = review ? reviewHeapSize : freshSize;
+        int index = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && less(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!less(heap[child], index)) {
+                break;
+            }
+            place(review, position, heap[child]);
+            position = child;
+        }
+        place(review, position, index);
+    }
+    
+    private int reviewSlot(long hash) {
+        int mask = reviewHashes.length - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (reviewHashes[slot] != 0 && reviewHashes[slot] != hash) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+    
+    private void growReviews() {
+        long[] hashes = reviewHashes;
+        int[] counts = reviewCounts;
+        long[] times = reviewTimes;
+        reviewHashes = new long[hashes.length * 2];
+        reviewCounts = new int[hashes.length * 2];
+        reviewTimes = new long[hashes.length * 2];
+        for (int i = 0; i < hashes.length; i++) {
+            if (hashes[i] != 0) {
+                int slot = reviewSlot(hashes[i]);
+                reviewHashes[slot] = hashes[i];
+                reviewCounts[slot] = counts[i];
+                reviewTimes[slot] = times[i];
+            }
+        }
+    }
+    
+    private void putReview(long hash, int count, long time) {
+        int slot = reviewSlot(hash);
+        if (reviewHashes[slot] == 0) {
+            reviewHashes[slot] = hash;
+            reviewSize++;
+        }
+        reviewCounts[slot] = count;
+        reviewTimes[slot] = time;
+        if (reviewSize * 2 > reviewHashes.length) {
+            growReviews();
+        }
+    }
+    
+    // 读取旁路文件，末尾不完整的记录是追加中断留下的，截掉以免之后的记录错位；文件不存在或格式不符时返回false
+    private boolean load() throws IOException {
+        if (!file.exists()) {
+            return false;
+        }
+        long length = file.length();
+        long records;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            if (length < HEADER_SIZE || in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return false;
+            }
+            records = (length - HEADER_SIZE) / RECORD_SIZE;
+            for (long i = 0; i < records; i++) {
+                putReview(in.readLong(), in.readInt(), in.readLong());
+            }
+            fileRecords = (int) records;
+        }
+        long valid = HEADER_SIZE + records * RECORD_SIZE;
+        if (valid < length) {
+            System.err.println("复习计划 " + file.getName() + " 末尾有不完整的记录，已截断并丢弃 " + (length - valid) + " 字节");
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+            }
+        }
+        return true;
+    }
+    
+    // 按ID顺序统计全部历史记录（不只是列表中已加载的最近几个月）中每个问题的回答次数和最近回答时间
+    private void seed(HistoryStorage history) throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        history.forEachSummary(entry -> {
+            long time;
+            try {
+                time = format.parse(entry.getTimestamp()).getTime();
+            } catch (java.text.ParseException | RuntimeException e) {
+                return;
+            }
+            long hash = QuestionHashSet.hash(entry.getQuestion());
+            int slot = reviewSlot(hash);
+            int count = reviewHashes[slot] != 0 ? reviewCounts[slot] : 0;
+            long last = reviewHashes[slot] != 0 ? reviewTimes[slot] : 0;
+            putReview(hash, count + 1, Math.max(last, time));
+        });
+    }
+    
+    // 每个问题只保留一条记录，写入临时文件后原子替换
+    private void rewrite() throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (int i = 0; i < reviewHashes.length; i++) {
+                if (reviewHashes[i] != 0) {
+                    out.writeLong(reviewHashes[i]);
+                    out.writeInt(reviewCounts[i]);
+                    out.writeLong(reviewTimes[i]);
+                }
+            }
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        fileRecords = reviewSize;
+    }
+    
+    private void append(long hash, int count, long time) {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true))) {
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE).putLong(hash).putInt(count).putLong(time);
+            out.write(record.array());
+        } catch (IOException e) {
+            System.err.println("保存复习计划失败: " + e.getMessage());
+        }
+    }
+}
+
+// 题库文件中的分类标题：n个#开头的行是第n级标题，之后的问题属于这个分类，直到出现同级或更高级的标题；
+// 问题的标签是它所在的各级标题。只有#没有文字的行结束所有分类，之后的问题不带标签
+// 按问题的规范化哈希排序保存每个问题所在的分类，便于按题库中的问题查找
+class QuestionSections {
+    private static final String[] NONE = new String[0];
+    
+    // 问题哈希 -> 分类ID（开放寻址，哈希0表示空槽）
+    private final long[] hashes;
+    private final int[] sectionOf;
+    private final int size;
+    // 分类ID -> 各级标题（下标为级别减一，跳过的级别为null）
+    private final java.util.List<String[]> sections;
+    
+    private QuestionSections(int expected, java.util.List<String[]> sections) {
+        int capacity = 16;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        this.hashes = new long[capacity];
+        this.sectionOf = new int[capacity];
+        this.sections = sections;
+        this.size = expected;
+    }
+    
+    // 读取题库文件中的标题；文件不存在时没有分类
+    static QuestionSections read(File file) throws IOException {
+        ArrayList<String[]> sections = new ArrayList<>();
+        if (file == null || !file.exists()) {
+            return new QuestionSections(0, sections);
+        }
+        String text = CharsetDetector.readText(file);
+        long[] lineHashes = new long[1024];
+        int[] lineSections = new int[1024];
+        int count = 0;
+        String[] path = NONE;
+        int section = -1;
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                end = text.length();
+            }
+            String line = text.substring(start, end).trim();
+            start = end + 1;
+            if (line.isEmpty() || line.indexOf('\uFFFD') >= 0) {
+                continue;
+            }
+            if (line.startsWith("#")) {
+                int level = 0;
+                while (level < line.length() && line.charAt(level) == '#') {
+                    level++;
+                }
+                String title = line.substring(level).trim();
+                if (title.isEmpty()) {
+                    path = NONE;
+                    section = -1;
+                } else {
+                    path = Arrays.copyOf(path, level);
+                    path[level - 1] = title;
+                    sections.add(path);
+                    section = sections.size() - 1;
+                }
+                continue;
+            }
+            if (section < 0) {
+                continue;
+            }
+            if (count == lineHashes.length) {
+                lineHashes = Arrays.copyOf(lineHashes, count * 2);
+                lineSections = Arrays.copyOf(lineSections, count * 2);
+            }
+            lineHashes[count] = QuestionHashSet.hash(line);
+            lineSections[count] = section;
+            count++;
+        }
+        // 同一问题出现多次时以第一次为准
+        QuestionSections result = new QuestionSections(count, sections);
+        for (int i = 0; i < count; i++) {
+            int slot = result.slot(lineHashes[i]);
+            if (result.hashes[slot] == 0) {
+                result.hashes[slot] = lineHashes[i];
+                result.sectionOf[slot] = lineSections[i];
+            }
+        }
+        return result;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    public int sectionCount() {
+        return sections.size();
+    }
+    
+    // 问题所在的分类ID，不属于任何分类时返回-1
+    public int sectionOf(String question) {
+        int slot = slot(QuestionHashSet.hash(question));
+        return hashes[slot] != 0 ? sectionOf[slot] : -1;
+    }
+    
+    private int slot(long hash) {
+        int mask = hashes.length - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (hashes[slot] != 0 && hashes[slot] != hash) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+    
+    // 分类的各级标题，-1返回空数组
+    public String[] path(int section) {
+        return section >= 0 ? sections.get(section) : NONE;
+    }
+    
+    // 按顺序写出问题，分类变化时先写出变化的各级标题，保持文件中原有的分类
+    public void writeTo(OutputStream out, java.util.List<String> questions) throws IOException {
+        String[] current = NONE;
+        for (String question : questions) {
+            String[] path = path(sectionOf(question));
+            if (path != current) {
+                if (path.length == 0) {
+                    out.write("#\n".getBytes(StandardCharsets.UTF_8));
+                } else {
+                    int common = 0;
+                    while (common < path.length && common < current.length && Objects.equals(path[common], current[common])) {
+                        common++;
+                    }
+                    // 只比上一分类少了更深的级别时，重写最后一级标题才能回到上层分类
+                    if (common == path.length) {
+                        common--;
+                    }
+                    // 跳过的级别无法用标题清除，先结束所有分类
+                    if (path[common] == null && current.length > 0) {
+                        out.write("#\n".getBytes(StandardCharsets.UTF_8));
+                        common = 0;
+                    }
+                    for (int level = common; level < path.length; level++) {
+                        if (path[level] != null) {
+                            out.write(("#".repeat(level + 1) + " " + path[level] + "\n").getBytes(StandardCharsets.UTF_8));
+                        }
+                    }
+                }
+                current = path;
+            }
+            out.write(question.getBytes(StandardCharsets.UTF_8));
+            out.write('\n');
+        }
+    }
+}
+
+// 分类标签索引：每个标签对应一个BitSet，第i位表示题库第i个问题带有这个标签
+// 按标签的与/或组合筛选时只对BitSet做按位运算，再把结果展开为下标数组，之后每次抽题O(1)
+// 题库或题库文件变化后在后台线程重新读取标题并重建，建好后与建表时的题库快照一起发布
+class QuestionTagIndex implements QuestionStore.Listener {
+    private static final class Index {
+        final QuestionBank bank;
+        final String[] tags;
+        final BitSet[] bits;
+        
+        Index(QuestionBank bank, String[] tags, BitSet[] bits) {
+            this.bank = bank;
+            this.tags = tags;
+            this.bits = bits;
+        }
+    }
+    
+    // 筛选后的抽题：在匹配的下标中洗牌抽取，一轮之内不重复
+    static final class Filter implements QuestionSelector {
+        private final String expression;
+        private final QuestionBank bank;
+        private final int[] members;
+        private int remaining;
+        
+        private Filter(String expression, QuestionBank bank, int[] members) {
+            this.expression = expression;
+            this.bank = bank;
+            this.members = members;
+        }
+        
+        public String expression() {
+            return expression;
+        }
+        
+        public int size() {
+            return members.length;
+        }
+        
+        @Override
+        public synchronized String next() {
+            if (members.length == 0) {
+                return null;
+            }
+            if (remaining == 0) {
+                remaining = members.length;
+            }
+            int position = ThreadLocalRandom.current().nextInt(remaining);
+            int index = members[position];
+            remaining--;
+            members[position] = members[remaining];
+            members[remaining] = index;
+            return bank.get(index);
+        }
+    }
+    
+    private final QuestionStore store;
+    private final File file;
+    private final ExecutorService builder = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "tag-indexer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean rebuildPending = new AtomicBoolean();
+    private volatile Index index;
+    // 重建完成后在EDT中调用
+    private volatile Runnable rebuiltListener;
+    
+    public QuestionTagIndex(QuestionStore store, File file) {
+        this.store = store;
+        this.file = file;
+        this.index = new Index(store.addListener(this), new String[0], new BitSet[0]);
+        rebuild();
+    }
+    
+    public void setRebuiltListener(Runnable listener) {
+        this.rebuiltListener = listener;
+    }
+    
+    // 所有标签，按在文件中第一次出现的顺序
+    public String[] tags() {
+        return index.tags.clone();
+    }
+    
+    @Override
+    public void published(QuestionBank snapshot, QuestionStore.Change change, int position) {
+        rebuild();
+    }
+    
+    // 题库文件变化后调用（只改了标题时题库不会发布新快照）
+    public void fileChanged() {
+        rebuild();
+    }
+    
+    // 按表达式筛选："|"分隔的各组满足其一，组内"&"分隔的标签同时满足，如 "哲学&人生|工作"
+    public Filter filter(String expression) {
+        Index current = index;
+        BitSet result = new BitSet(current.bank.size());
+        for (String group : expression.split("\\|")) {
+            BitSet matched = null;
+            for (String tag : group.split("&")) {
+                tag = tag.trim();
+                if (tag.isEmpty()) {
+                    continue;
+                }
+                BitSet bits = bitsOf(current, tag);
+                if (matched == null) {
+                    matched = (BitSet) bits.clone();
+                } else {
+                    matched.and(bits);
+                }
+            }
+            if (matched != null) {
+                result.or(matched);
+            }
+        }
+        int[] members = new int[result.cardinality()];
+        int count = 0;
+        for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+            members[count++] = i;
+        }
+        return new Filter(expression, current.bank, members);
+    }
+    
+    public void close() {
+        builder.shutdownNow();
+    }
+    
+    private static BitSet bitsOf(Index index, String tag) {
+        for (int i = 0; i < index.tags.length; i++) {
+            if (index.tags[i].equals(tag)) {
+                return index.bits[i];
+            }
+        }
+        return new BitSet();
+    }
+    
+    // 已有重建在排队时不再提交，排队的重建总是使用最新的题库快照和文件内容
+    private void rebuild() {
+        if (file == null || !rebuildPending.compareAndSet(false, true)) {
+            return;
+        }
+        builder.execute(() -> {
+            rebuildPending.set(false);
+            try {
+                index = build(store.snapshot(), QuestionSections.read(file));
+            } catch (IOException e) {
+                System.err.println("读取问题分类失败: " + e.getMessage());
+                return;
+            }
+            Runnable listener = rebuiltListener;
+            if (listener != null) {
+                SwingUtilities.invokeLater(listener);
+            }
+        });
+    }
+    
+    private static Index build(QuestionBank bank, QuestionSections sections) {
+        if (sections.isEmpty()) {
+            return new Index(bank, new String[0], new BitSet[0]);
+        }
+        // 分类ID -> 标签ID，同名标题是同一个标签
+        LinkedHashMap<String, Integer> tagIds = new LinkedHashMap<>();
+        int[][] sectionTags = new int[sections.sectionCount()][];
+        for (int section = 0; section < sectionTags.length; section++) {
+            String[] path = sections.path(section);
+            int[] ids = new int[path.length];
+            int count = 0;
+            for (String title : path) {
+                if (title != null) {
+                    ids[count++] = tagIds.computeIfAbsent(title, t -> tagIds.size());
+                }
+            }
+            sectionTags[section] = Arrays.copyOf(ids, count);
+        }
+        BitSet[] bits = new BitSet[tagIds.size()];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = new BitSet(bank.size());
+        }
+        for (int i = 0; i < bank.size(); i++) {
+            int section = sections.sectionOf(bank.get(i));
+            if (section >= 0) {
+                for (int tag : sectionTags[section]) {
+                    bits[tag].set(i);
+                }
+            }
+        }
+        return new Index(bank, tagIds.keySet().toArray(new String[0]), bits);
+    }
+}
+
+// 按需读取的题库：题库文件整体内存映射，另有一个只记录每个问题起始位置的行索引（一遍扫描建立，持久化为旁路文件并同样映射），
+// 读取某个问题时只解码那一行；堆内存占用与问题数无关，适合几千万行的大题库。题库文件须为UTF-8，映射只在EDT中访问和释放
+// 索引文件: [int 魔数][int 版本][long 题库文件长度][long 题库文件修改时间][long 问题数]，之后每个问题一个 [long 行首位置]
+// 题库文件长度或修改时间与索引记录的不一致时重建索引；空行和#开头的标题行不计入问题
+class LazyQuestionBank extends AbstractList<String> implements RandomAccess {
+    static final int MAGIC = 0x5450514C; // "TPQL"
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    
+    private final Arena arena;
+    private final MemorySegment data;
+    // 保持打开以取得题库文件的当前长度：映射的大小不会随文件截短而变小
+    private final FileChannel dataChannel;
+    private final MemorySegment index;
+    private final int count;
+    
+    private LazyQuestionBank(Arena arena, MemorySegment data, FileChannel dataChannel, MemorySegment index, int count) {
+        this.arena = arena;
+        this.data = data;
+        this.dataChannel = dataChannel;
+        this.index = index;
+        this.count = count;
+    }
+    
+    // 没有映射任何文件的空题库，题库文件被替换或删除期间使用
+    static LazyQuestionBank empty() {
+        return new LazyQuestionBank(Arena.ofShared(), MemorySegment.NULL, null, MemorySegment.NULL, 0);
+    }
+    
+    // 打开题库文件，索引有效时直接映射，否则先重建；题库文件不是UTF-8时返回null
+    static LazyQuestionBank open(File file, File indexFile) throws IOException {
+        if (!isUtf8(file)) {
+            return null;
+        }
+        if (!isIndexValid(file, indexFile)) {
+            return install(file, buildIndex(file, indexFile), indexFile);
+        }
+        return map(file, indexFile);
+    }
+    
+    // 题库文件开头的样本按UTF-8解码（没有题库文件时视为UTF-8）
+    static boolean isUtf8(File file) throws IOException {
+        if (!file.exists()) {
+            return true;
+        }
+        byte[] sample;
+        try (InputStream in = new FileInputStream(file)) {
+            sample = in.readNBytes(QuestionImporter.SAMPLE_SIZE);
+        }
+        return CharsetDetector.detect(sample, sample.length, sample.length < file.length()).charset == StandardCharsets.UTF_8;
+    }
+    
+    // 一遍扫描题库文件，把行索引写入临时文件并返回；不影响当前正在使用的索引
+    static File buildIndex(File file, File indexFile) throws IOException {
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        long length = file.exists() ? file.length() : 0;
+        long modified = file.exists() ? file.lastModified() : 0;
+        long count = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 20))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(length);
+            out.writeLong(modified);
+            out.writeLong(0);
+            if (length > 0) {
+                try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 20)) {
+                    byte[] buffer = new byte[1 << 20];
+                    long position = 0;
+                    // 跳过文件开头的UTF-8 BOM（EF BB BF），其他字节留给下面扫描
+                    in.mark(3);
+                    byte[] head = in.readNBytes(3);
+                    if (head.length == 3 && (head[0] & 0xFF) == 0xEF && (head[1] & 0xFF) == 0xBB && (head[2] & 0xFF) == 0xBF) {
+                        position = 3;
+                    } else {
+                        in.reset();
+                    }
+                    long lineStart = position;
+                    // 0: 行首的空白中  1: 已确定是问题或标题行，跳到行尾
+                    int state = 0;
+                    int n;
+                    while ((n = in.read(buffer)) > 0) {
+                        for (int i = 0; i < n; i++, position++) {
+                            int c = buffer[i] & 0xFF;
+                            if (c == '\n') {
+                                state = 0;
+                                lineStart = position + 1;
+                            } else if (state == 0 && c > ' ') {
+                                state = 1;
+                                if (c != '#') {
+                                    out.writeLong(lineStart);
+                                    count++;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        if (count > Integer.MAX_VALUE) {
+            tempFile.delete();
+            throw new IOException("题库超过最大问题数: " + count);
+        }
+        try (RandomAccessFile header = new RandomAccessFile(tempFile, "rw")) {
+            header.seek(24);
+            header.writeLong(count);
+        }
+        return tempFile;
+    }
+    
+    // 用buildIndex建好的索引替换旧索引并映射（旧的映射须已释放）
+    static LazyQuestionBank install(File file, File builtIndex, File indexFile) throws IOException {
+        Files.move(builtIndex.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return map(file, indexFile);
+    }
+    
+    private static boolean isIndexValid(File file, File indexFile) {
+        if (!indexFile.exists() || indexFile.length() < HEADER_SIZE) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(indexFile))) {
+            long length = file.exists() ? file.length() : 0;
+            long modified = file.exists() ? file.lastModified() : 0;
+            return in.readInt() == MAGIC && in.readInt() == VERSION && in.readLong() == length && in.readLong() == modified
+                && indexFile.length() == HEADER_SIZE + 8 * in.readLong();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    private static LazyQuestionBank map(File file, File indexFile) throws IOException {
+        Arena arena = Arena.ofShared();
+        try {
+            MemorySegment index;
+            try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+                index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+            }
+            int count = (int) index.get(LONG, 24);
+            MemorySegment data = MemorySegment.NULL;
+            FileChannel dataChannel = null;
+            if (count > 0) {
+                dataChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                try {
+                    data = dataChannel.map(FileChannel.MapMode.READ_ONLY, 0, dataChannel.size(), arena);
+                } catch (IOException | RuntimeException e) {
+                    dataChannel.close();
+                    throw e;
+                }
+            }
+            return new LazyQuestionBank(arena, data, dataChannel, index, count);
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+    
+    @Override
+    public int size() {
+        return count;
+    }
+    
+    // 只读取并解码第index个问题所在的一行
+    @Override
+    public String get(int position) {
+        Objects.checkIndex(position, count);
+        long start = index.get(LONG, HEADER_SIZE + 8L * position);
+        long limit;
+        try {
+            limit = Math.min(data.byteSize(), dataChannel.size());
+        } catch (IOException e) {
+            return "";
+        }
+        if (start >= limit) {
+            // 题库文件在索引重建前被原地截短：超出文件当前长度的映射页已不可访问
+            return "";
+        }
+        try {
+            long end = start;
+            while (end < limit && data.get(ValueLayout.JAVA_BYTE, end) != '\n') {
+                end++;
+            }
+            byte[] bytes = data.asSlice(start, end - start).toArray(ValueLayout.JAVA_BYTE);
+            return new String(bytes, StandardCharsets.UTF_8).trim();
+        } catch (InternalError e) {
+            // 检查长度之后文件又被截短时，访问映射会触发SIGBUS，JVM将其转为InternalError
+            return "";
+        }
+    }
+    
+    // 释放映射（EDT），之后不能再读取
+    public void close() {
+        arena.close();
+        if (dataChannel != null) {
+            try {
+                dataChannel.close();
+            } catch (IOException e) {
+                System.err.println("关闭题库文件失败: " + e.getMessage());
+            }
+        }
+    }
+    
+    // 一轮内不重复的抽题顺序，所需内存与问题数无关
+    public QuestionSelector shuffled() {
+        return new Cycle(this);
+    }
+    
+    // 用随机密钥的4轮Feistel网络把[0, 4^k)打乱成一个排列，落在问题数之外的值继续加密直到落入范围（cycle-walking），
+    // 依次取序号0, 1, 2...的像得到[0, 问题数)的一个排列；一轮用完后换一组密钥
+    private static final class Cycle implements QuestionSelector {
+        private final LazyQuestionBank bank;
+        private final int halfBits;
+        private final long halfMask;
+        private final int[] keys = new int[4];
+        private long counter;
+        
+        Cycle(LazyQuestionBank bank) {
+            this.bank = bank;
+            int bits = 64 - Long.numberOfLeadingZeros(Math.max(1, bank.size() - 1));
+            this.halfBits = Math.max(1, (bits + 1) / 2);
+            this.halfMask = (1L << halfBits) - 1;
+            rekey();
+        }
+        
+        @Override
+        public synchronized String next() {
+            int count = bank.size();
+            if (count == 0) {
+                return null;
+            }
+            if (counter == count) {
+                counter = 0;
+                rekey();
+            }
+            long value = permute(counter++);
+            while (value >= count) {
+                value = permute(value);
+            }
+            return bank.get((int) value);
+        }
+        
+        private void rekey() {
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = ThreadLocalRandom.current().nextInt();
+            }
+        }
+        
+        private long permute(long value) {
+            long left = value >>> halfBits;
+            long right = value & halfMask;
+            for (int key : keys) {
+                long mixed = (right * 0x9E3779B97F4A7C15L) ^ key;
+                mixed ^= mixed >>> 29;
+                mixed *= 0xBF58476D1CE4E5B9L;
+                mixed ^= mixed >>> 32;
+                long next = left ^ (mixed & halfMask);
+                left = right;
+                right = next;
+            }
+            return (left << halfBits) | right;
+        }
+    }
+}
+
+// 题库差异：按整行的64位哈希把新旧两份问题列表当作多重集合比较，只找出新增和删除的问题
+// 两边的哈希各排序一次后归并，不为每个问题创建装箱对象
+class QuestionBankDiff {
+    final ArrayList<String> added = new ArrayList<>();
+    final ArrayList<String> removed = new ArrayList<>();
+    
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty();
+    }
+    
+    static QuestionBankDiff compute(java.util.List<String> oldLines, java.util.List<String> newLines) {
+        QuestionBankDiff diff = new QuestionBankDiff();
+        long[] oldHashes = sortedHashes(oldLines);
+        long[] newHashes = sortedHashes(newLines);
+        if (Arrays.equals(oldHashes, newHashes)) {
+            return diff;
+        }
+        
+        // 归并两个有序数组：只在一边出现（或出现次数更多）的哈希进入对应一边的差集
+        long[] onlyOld = new long[oldHashes.length];
+        long[] onlyNew = new long[newHashes.length];
+        int oldCount = 0;
+        int newCount = 0;
+        int i = 0;
+        int j = 0;
+        while (i < oldHashes.length || j < newHashes.length) {
+            if (j >= newHashes.length || (i < oldHashes.length && oldHashes[i] < newHashes[j])) {
+                onlyOld[oldCount++] = oldHashes[i++];
+            } else if (i >= oldHashes.length || newHashes[j] < oldHashes[i]) {
+                onlyNew[newCount++] = newHashes[j++];
+            } else {
+                i++;
+                j++;
+            }
+        }
+        collect(oldLines, onlyOld, oldCount, diff.removed);
+        collect(newLines, onlyNew, newCount, diff.added);
+        return diff;
+    }
+    
+    // 按原顺序取出哈希落在差集中的行：差集压缩成有序的不重复哈希和出现次数，每行消耗一次
+    private static void collect(java.util.List<String> lines, long[] hashes, int count, ArrayList<String> out) {
+        if (count == 0) {
+            return;
+        }
+        long[] keys = new long[count];
+        int[] remaining = new int[count];
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique > 0 && keys[unique - 1] == hashes[i]) {
+                remaining[unique - 1]++;
+            } else {
+                keys[unique] = hashes[i];
+                remaining[unique++] = 1;
+            }
+        }
+        for (String line : lines) {
+            int index = Arrays.binarySearch(keys, 0, unique, lineHash(line));
+            if (index >= 0 && remaining[index] > 0) {
+                remaining[index]--;
+                out.add(line);
+            }
+        }
+    }
+    
+    private static long[] sortedHashes(java.util.List<String> lines) {
+        long[] hashes = new long[lines.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = lineHash(lines.get(i));
+        }
+        Arrays.sort(hashes);
+        return hashes;
+    }
+    
+    // 整行的64位哈希（区分大小写和空白，与导入去重使用的规范化哈希不同）
+    private static long lineHash(String line) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < line.length(); i++) {
+            h = (h ^ line.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
+
+// 监视题库文件所在的目录：外部编辑器保存题库后，把短时间内的多次变化事件合并成一次回调（在EDT中调用）
+class QuestionFileWatcher {
+    private final File file;
+    private final WatchService watchService;
+    private final Timer debounceTimer;
+    private volatile boolean closed;
+    
+    public QuestionFileWatcher(File file, int debounceMs, Runnable onChange) throws IOException {
+        this.file = file.getAbsoluteFile();
+        Path directory = this.file.getParentFile().toPath();
+        this.watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        this.debounceTimer = new Timer(debounceMs, e -> {
+            if (!closed) {
+                onChange.run();
+            }
+        });
+        debounceTimer.setRepeats(false);
+        
+        Thread thread = new Thread(this::watchLoop, "question-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    private void watchLoop() {
+        String name = file.getName();
+        while (!closed) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            boolean changed = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                // 事件溢出时无法确定哪个文件变化了，按题库变化处理
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || name.equals(String.valueOf(event.context()))) {
+                    changed = true;
+                }
+            }
+            if (!key.reset()) {
+                System.err.println("题库目录已无法监视: " + file.getParent());
+                return;
+            }
+            if (changed) {
+                // 每次变化都重新计时，静默一段时间后才回调
+                SwingUtilities.invokeLater(debounceTimer::restart);
+            }
+        }
+    }
+    
+    public void close() {
+        closed = true;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            System.err.println("关闭题库监视失败: " + e.getMessage());
+        }
+    }
+}
+
+// 答案草稿日志：输入框的每次插入和删除只记录变化的范围，停止输入一段时间后交给后台线程追加写入并刷盘，
+// 程序崩溃或关闭后下次启动重放日志恢复未保存的答案；切换问题时以一条完整记录重新开始
+// 文件格式：[int 魔数][int 版本]，之后是记录 [int 内容长度][内容][int CRC32C]，
+// 内容为 [byte 类型] 加上：完整记录 [int 问题长度][问题UTF-8][int 文本长度][文本UTF-8]，
+// 插入 [int 位置][int 长度][文本UTF-8]，删除 [int 位置][int 字符数]（位置和字符数按文档中的字符计）
+class DraftJournal implements javax.swing.event.DocumentListener {
+    private static final int MAGIC = 0x54504446; // "TPDF"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final byte OP_BASE = 0;
+    private static final byte OP_INSERT = 1;
+    private static final byte OP_REMOVE = 2;
+    // 完整记录之后的增量超过这个大小且超过当前文本的4倍时，下次写入改写为一条完整记录
+    private static final long REWRITE_MIN_BYTES = 64 * 1024;
+    
+    // 启动时恢复出的草稿
+    static final class Draft {
+        final String question;
+        final String text;
+        
+        Draft(String question, String text) {
+            this.question = question;
+            this.text = text;
+        }
+    }
+    
+    // 待写入的一次修改，连续输入或连续删除在EDT中合并为一条
+    private static final class Op {
+        final byte type;
+        int offset;
+        int length;
+        final StringBuilder text;
+        final String question;
+        
+        Op(byte type, int offset, int length, String text, String question) {
+            this.type = type;
+            this.offset = offset;
+            this.length = length;
+            this.text = text != null ? new StringBuilder(text) : null;
+            this.question = question;
+        }
+    }
+    
+    private final File file;
+    private final Draft restored;
+    private final Timer flushTimer;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "draft-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // 以下只在EDT中访问
+    private javax.swing.text.Document document;
+    private String question = "";
+    private java.util.List<Op> pending = new ArrayList<>();
+    private long bytesSinceBase;
+    // 以下只在写入线程中访问
+    private FileChannel channel;
+    private long validLength;
+    private boolean failed;
+    
+    private DraftJournal(File file, Draft restored, long validLength, int debounceMs) {
+        this.file = file;
+        this.restored = restored;
+        this.validLength = validLength;
+        this.flushTimer = new Timer(debounceMs, e -> flush());
+        flushTimer.setRepeats(false);
+    }
+    
+    // 读取上次留下的草稿，末尾不完整的记录在第一次写入前截掉
+    static DraftJournal open(File file, int debounceMs) {
+        Draft draft = null;
+        long validLength = 0;
+        if (file.exists()) {
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+                if (buffer.remaining() >= HEADER_SIZE && buffer.getInt() == MAGIC && buffer.getInt() == VERSION) {
+                    validLength = HEADER_SIZE;
+                    String question = "";
+                    StringBuilder text = new StringBuilder();
+                    while (buffer.remaining() >= 8) {
+                        int length = buffer.getInt();
+                        if (length <= 0 || length + 4 > buffer.remaining()) {
+                            break;
+                        }
+                        CRC32C crc = new CRC32C();
+                        crc.update(buffer.array(), buffer.position(), length);
+                        if ((int) crc.getValue() != buffer.getInt(buffer.position() + length)) {
+                            break;
+                        }
+                        ByteBuffer record = buffer.slice(buffer.position(), length);
+                        byte type = record.get();
+                        if (type == OP_BASE) {
+                            question = readString(record);
+                            text.setLength(0);
+                            text.append(readString(record));
+                        } else if (type == OP_INSERT) {
+                            int offset = record.getInt();
+                            String inserted = readString(record);
+                            if (offset < 0 || offset > text.length()) {
+                                break;
+                            }
+                            text.insert(offset, inserted);
+                        } else if (type == OP_REMOVE) {
+                            int offset = record.getInt();
+                            int count = record.getInt();
+                            if (offset < 0 || count < 0 || offset + count > text.length()) {
+                                break;
+                            }
+                            text.delete(offset, offset + count);
+                        } else {
+                            break;
+                        }
+                        buffer.position(buffer.position() + length + 4);
+                        validLength = buffer.position();
+                        draft = new Draft(question, text.toString());
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("读取答案草稿失败: " + e.getMessage());
+                draft = null;
+                validLength = 0;
+            }
+        }
+        return new DraftJournal(file, draft, validLength, debounceMs);
+    }
+    
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    // 上次未保存的答案，没有时返回null
+    Draft restored() {
+        return restored != null && !restored.text.isEmpty() ? restored : null;
+    }
+    
+    // 开始记录输入框的修改（EDT）；文档内容应当与question对应的草稿一致，恢复了草稿时不重写日志
+    void attach(javax.swing.text.Document document, String question, boolean continueRestored) {
+        this.document = document;
+        if (continueRestored) {
+            this.question = question;
+        } else {
+            reset(question);
+        }
+        document.addDocumentListener(this);
+    }
+    
+    // 切换到新问题时调用（EDT）：之前的修改不再需要，以新问题和当前文本重新开始
+    void reset(String question) {
+        if (document == null) {
+            return;
+        }
+        this.question = question != null ? question : "";
+        pending = new ArrayList<>();
+        bytesSinceBase = 0;
+        addBase();
+        flush();
+    }
+    
+    private void addBase() {
+        String text = "";
+        try {
+            text = document.getText(0, document.getLength());
+        } catch (javax.swing.text.BadLocationException e) {
+            // 不会发生：范围取自文档本身
+        }
+        pending.add(new Op(OP_BASE, 0, 0, text, question));
+        bytesSinceBase = 0;
+    }
+    
+    @Override
+    public void insertUpdate(javax.swing.event.DocumentEvent e) {
+        String text;
+        try {
+            text = document.getText(e.getOffset(), e.getLength());
+        } catch (javax.swing.text.BadLocationException ex) {
+            return;
+        }
+        Op last = pending.isEmpty() ? null : pending.get(pending.size() - 1);
+        if (last != null && last.type == OP_INSERT && last.offset + last.text.length() == e.getOffset()) {
+            last.text.append(text);
+        } else {
+            pending.add(new Op(OP_INSERT, e.getOffset(), 0, text, null));
+        }
+        bytesSinceBase += 13 + text.length() * 3L;
+        flushTimer.restart();
+    }
+    
+    @Override
+    public void removeUpdate(javax.swing.event.DocumentEvent e) {
+        Op last = pending.isEmpty() ? null : pending.get(pending.size() - 1);
+        if (last != null && last.type == OP_REMOVE && e.getOffset() + e.getLength() == last.offset) {
+            // 连续退格
+            last.offset = e.getOffset();
+            last.length += e.getLength();
+        } else if (last != null && last.type == OP_REMOVE && e.getOffset() == last.offset) {
+            // 连续向后删除
+            last.length += e.getLength();
+        } else {
+            pending.add(new Op(OP_REMOVE, e.getOffset(), e.getLength(), null, null));
+        }
+        bytesSinceBase += 13;
+        flushTimer.restart();
+    }
+    
+    @Override
+    public void changedUpdate(javax.swing.event.DocumentEvent e) {
+        // 只有属性变化，文本不变
+    }
+    
+    // 把积累的修改交给写入线程（EDT）
+    private void flush() {
+        flushTimer.stop();
+        if (pending.isEmpty()) {
+            return;
+        }
+        if (bytesSinceBase > REWRITE_MIN_BYTES && bytesSinceBase > document.getLength() * 12L) {
+            pending = new ArrayList<>();
+            addBase();
+        }
+        java.util.List<Op> ops = pending;
+        pending = new ArrayList<>();
+        writer.execute(() -> write(ops));
+    }
+    
+    private void write(java.util.List<Op> ops) {
+        if (failed) {
+            return;
+        }
+        try {
+            // 完整记录之前的内容全部作废
+            int start = -1;
+            for (int i = 0; i < ops.size(); i++) {
+                if (ops.get(i).type == OP_BASE) {
+                    start = i;
+                }
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            if (start >= 0 || validLength == 0) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                for (int i = Math.max(start, 0); i < ops.size(); i++) {
+                    encode(ops.get(i), out);
+                }
+                rewrite(bytes.toByteArray());
+                return;
+            }
+            if (channel == null) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+            }
+            if (channel.size() > validLength) {
+                channel.truncate(validLength);
+            }
+            for (Op op : ops) {
+                encode(op, out);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, validLength + buffer.position());
+            }
+            channel.force(false);
+            validLength += buffer.limit();
+        } catch (IOException e) {
+            failed = true;
+            System.err.println("写入答案草稿失败，本次运行不再自动保存草稿: " + e.getMessage());
+        }
+    }
+    
+    // 整个日志先写入临时文件并刷盘，再原子替换原文件；替换完成前崩溃时旧草稿仍然完整
+    private void rewrite(byte[] content) throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (FileChannel temp = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining()) {
+                temp.write(buffer);
+            }
+            temp.force(false);
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        validLength = content.length;
+    }
+    
+    private static void encode(Op op, DataOutputStream out) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeByte(op.type);
+        if (op.type == OP_BASE) {
+            writeString(record, op.question);
+            writeString(record, op.text.toString());
+        } else if (op.type == OP_INSERT) {
+            record.writeInt(op.offset);
+            writeString(record, op.text.toString());
+        } else {
+            record.writeInt(op.offset);
+            record.writeInt(op.length);
+        }
+        byte[] content = bytes.toByteArray();
+        CRC32C crc = new CRC32C();
+        crc.update(content);
+        out.writeInt(content.length);
+        out.write(content);
+        out.writeInt((int) crc.getValue());
+    }
+    
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    // 写出尚未写入的修改后关闭（EDT，退出时调用），草稿文件保留到下次启动
+    void close() {
+        if (document != null) {
+            document.removeDocumentListener(this);
+            flush();
+        }
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("关闭答案草稿失败: " + e.getMessage());
+        }
+    }
+}
+
+// 单实例：用数据目录中锁文件上的FileChannel锁保证只有一个进程读写数据文件
+// 已有实例在运行时，新启动的进程在创建界面之前通过Unix域套接字通知它显示窗口，然后直接退出
+class SingleInstance {
+    static final String LOCK_FILE = "thinkingpad.lock";
+    static final String SOCKET_FILE = "thinkingpad.sock";
+    private static final byte ACTIVATE = 1;
+    
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final Path socketPath;
+    private ServerSocketChannel server;
+    // 界面创建完成后才设置，之前收到的通知忽略
+    private volatile Runnable activationListener;
+    
+    private SingleInstance(FileChannel lockChannel, FileLock lock, Path socketPath) {
+        this.lockChannel = lockChannel;
+        this.lock = lock;
+        this.socketPath = socketPath;
+    }
+    
+    // 取得数据目录的锁并开始监听后续启动的通知，锁已被其他进程持有时返回null
+    static SingleInstance acquire(File directory) throws IOException {
+        FileChannel channel = FileChannel.open(new File(directory, LOCK_FILE).toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException | IOException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            channel.close();
+            return null;
+        }
+        SingleInstance instance = new SingleInstance(channel, lock, new File(directory, SOCKET_FILE).toPath());
+        instance.listen();
+        return instance;
+    }
+    
+    // 通知持有锁的实例显示窗口，对方确认后返回true
+    static boolean handOff(File directory) {
+        Path socket = new File(directory, SOCKET_FILE).toPath();
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            channel.write(ByteBuffer.wrap(new byte[] { ACTIVATE }));
+            return channel.read(ByteBuffer.allocate(1)) == 1;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+    
+    // 收到通知时在监听线程中调用
+    void setActivationListener(Runnable listener) {
+        this.activationListener = listener;
+    }
+    
+    // 停止监听并释放锁（退出时调用）
+    void close() {
+        try {
+            if (server != null) {
+                server.close();
+                Files.deleteIfExists(socketPath);
+            }
+            lock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            System.err.println("释放数据目录锁失败: " + e.getMessage());
+        }
+    }
+    
+    // 监听失败不影响本实例运行，只是重复启动时无法切换到本实例的窗口
+    private void listen() {
+        try {
+            // 持有锁说明没有其他实例，留下的套接字文件来自上次异常退出
+            Files.deleteIfExists(socketPath);
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+        } catch (IOException | UnsupportedOperationException e) {
+            System.err.println("无法监听单实例通知: " + e.getMessage());
+            server = null;
+            return;
+        }
+        Thread thread = new Thread(this::acceptLoop, "single-instance");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    private void acceptLoop() {
+        while (server.isOpen()) {
+            try (SocketChannel client = server.accept()) {
+                ByteBuffer request = ByteBuffer.allocate(1);
+                if (client.read(request) == 1 && request.get(0) == ACTIVATE) {
+                    Runnable listener = activationListener;
+                    if (listener != null) {
+                        listener.run();
+                    }
+                    client.write(ByteBuffer.wrap(new byte[] { ACTIVATE }));
+                }
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("处理单实例通知失败: " + e.getMessage());
+            }
+        }
+    }
+}
+
+public class ThinkingPad {
+    protected JFrame frame;
+    private AnimatedQuestionLabel questionLabel;
+    private JTextArea answerArea;
+    // 紧凑题库：读取时取当前的不可变快照，修改在写锁内完成后整体发布，已导入问题列表随之更新
+    private QuestionStore questions;
+    // 按需读取模式下的题库（questions保持为空）；为null表示题库全部加载在内存中
+    private LazyQuestionBank lazyQuestions;
+    private static final String DATA_FILE = "questions_data.journal";
+    private static final String LEGACY_DATA_FILE = "questions_data.txt";
+    private static final String QUESTIONS_FILE = "imported_questions.txt";
+    private static final String QUESTIONS_HASH_FILE = "imported_questions.hash";
+    private static final String QUESTIONS_INDEX_FILE = "imported_questions.idx";
+    private static final String DRAFT_FILE = "answer_draft.journal";
+    private static final String SCHEDULE_FILE = "question_schedule.dat";
+    private static final String WEIGHTS_FILE = "question_weights.txt";
+    // 题库和历史记录的存储（打开失败时为null）
+    private ThinkingPadStorage storage;
+    private HistoryWriter historyWriter;
+    // 所有界面共享的历史记录视图（日志打开失败时为null）
+    private HistoryRepository historyRepository;
+    // 输入框的草稿日志，保存答案或切换问题前崩溃、关闭都能在下次启动时恢复
+    private DraftJournal draftJournal;
+    private ModernButton importButton;
+    // 正在进行的导入（为null表示没有导入在进行）
+    private QuestionImporter currentImport;
+    private QuestionListModel importedListModel;
+    // 首页抽题：默认洗牌袋（一轮内不重复），也可以按回答历史间隔重复
+    private QuestionSelector questionSelector;
+    // 加权抽题时监视权重文件
+    private QuestionFileWatcher weightWatcher;
+    // 题库文件中分类标题的标签索引；设置了分类筛选时首页只在匹配的问题中抽取（为null表示不筛选）
+    private QuestionTagIndex tagIndex;
+    private QuestionTagIndex.Filter tagFilter;
+    // 按需读取时没有分类，隐藏分类按钮
+    private ModernButton filterButton;
+    // 保存进行中时禁用，避免同一个答案在写入完成前被提交两次（只在EDT中访问）
+    private ModernButton saveButton;
+    private boolean saving;
+    // 监视题库文件的外部修改；正在比较时再次变化则在比较完成后重新比较一次
+    private QuestionFileWatcher questionWatcher;
+    private boolean questionReloadRunning;
+    private boolean questionReloadPending;
+    // 历史记录选项卡的列表模型，条目在显示时才解码
+    private final HistoryListModel historyListModel = new HistoryListModel();
+    private JPanel notificationContainer;
+    private DynamicBackgroundPanel backgroundPanel;
+    private JTabbedPane mainTabbedPane;
+    
+    // 系统字体设置
+    private static final String DEFAULT_FONT_FAMILY = getSystemFont();
+    
+    // 获取系统字体，优先选择支持中文的字体
+    private static String getSystemFont() {
+        String osName = System.getProperty("os.name").toLowerCase();
+        
+        if (osName.contains("win")) {
+            // Windows系统优先使用微软雅黑
+            return "微软雅黑";
+        } else if (osName.contains("mac")) {
+            // macOS系统
+            return "PingFang SC";
+        } else {
+            // Linux或其他系统
+            return "SansSerif";
+        }
+    }
+    
+    public ThinkingPad() {
+        // 设置系统字体和UI属性
+        setupSystemProperties();
+        
+        System.out.println("打开存储...");
+        openStorage();
+        System.out.println("初始化问题...");
+        initializeQuestions();
+        System.out.println("打开历史记录日志...");
+        initializeHistoryJournal();
+        initializeSelector();
+        System.out.println("创建GUI...");
+        createGUI();
+        restoreDraft();
+        startQuestionWatcher();
+        System.out.println("刷新已导入问题显示...");
+        // 程序启动后刷新已导入问题选项卡显示
+        SwingUtilities.invokeLater(() -> refreshImportedTab());
+        System.out.println("ThinkingPad构造完成");
+    }
+    
+    // 设置系统属性，确保中文字体正确显示
+    private void setupSystemProperties() {
+        try {
+            // 设置默认字体
+            Font defaultFont = new Font(DEFAULT_FONT_FAMILY, Font.PLAIN, 12);
+            
+            // 设置所有UI组件的默认字体
             java.util.Enumeration<Object> keys = UIManager.getDefaults().keys();
             while (keys.hasMoreElements()) {
                 Object key = keys.nextElement();
@@ -3973,82 +10551,311 @@ public class ThinkingPad {
     }
     
     private void initializeQuestions() {
-        questions = new ArrayList<>();
+        questions = new QuestionStore();
+        importedListModel = new QuestionListModel(questions);
+        // 按需读取时不读取分类标题：读取标题要把整个题库文件解码到内存
+        boolean lazy = openLazyQuestions();
+        tagIndex = new QuestionTagIndex(questions, storage != null && !lazy ? storage.questionFile() : null);
+        tagIndex.setRebuiltListener(this::reapplyTagFilter);
+        if (lazy) {
+            return;
+        }
         loadImportedQuestionsFromFile(); // 使用不同的方法名避免冲突
     }
     
+    // questions.mode=lazy 且使用文件存储时按需读取题库；题库文件不是UTF-8或索引无法建立时仍全部加载
+    // 按需读取时已导入问题列表、分类筛选和按回答历史抽题都不可用，首页按一轮内不重复的顺序抽题
+    private boolean openLazyQuestions() {
+        if (!"lazy".equalsIgnoreCase(ThinkingPadConfig.get("questions.mode", "memory"))
+                || storage == null || storage.questionFile() == null) {
+            return false;
+        }
+        try {
+            lazyQuestions = LazyQuestionBank.open(storage.questionFile(), new File(QUESTIONS_INDEX_FILE));
+        } catch (IOException e) {
+            System.err.println("无法按需读取题库，改为全部加载: " + e.getMessage());
+            return false;
+        }
+        if (lazyQuestions == null) {
+            System.err.println("题库文件不是UTF-8编码，无法按需读取，改为全部加载");
+            return false;
+        }
+        System.out.println("按需读取题库，共 " + lazyQuestions.size() + " 个问题");
+        return true;
+    }
+    
+    // 按配置打开文件存储或数据库存储（文件存储首次运行时从旧版文本文件或单文件日志迁移）
+    private void openStorage() {
+        try {
+            storage = ThinkingPadStorage.open(new File(DATA_FILE), new File(LEGACY_DATA_FILE), new File(QUESTIONS_FILE));
+        } catch (IOException e) {
+            System.err.println("打开存储失败: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    // 建立历史记录的写入线程和共享视图；文件存储还要设置分段日志的后台整理和压缩
+    private void initializeHistoryJournal() {
+        if (storage == null) {
+            return;
+        }
+        try {
+            HistoryStorage history = storage.history();
+            if (history instanceof SegmentedHistoryJournal) {
+                SegmentedHistoryJournal journal = (SegmentedHistoryJournal) history;
+                journal.setCompactionPolicy(
+                    ThinkingPadConfig.getDouble("history.compaction.ratio", 0.5),
+                    ThinkingPadConfig.getLong("history.compaction.minBytes", 64 * 1024));
+                journal.setCompactionListener(reclaimed -> showNotification("整理完成",
+                    "历史记录已在后台整理，释放了 " + (reclaimed / 1024) + " KB 空间", NotificationPanel.NotificationType.INFO));
+            }
+            historyWriter = new HistoryWriter(history,
+                HistoryWriter.DurabilityPolicy.fromConfig(ThinkingPadConfig.get("history.durability", "batch")),
+                ThinkingPadConfig.getLong("history.fsyncIntervalMs", 1000),
+                1024);
+            historyRepository = new HistoryRepository(history, historyWriter,
+                (int) ThinkingPadConfig.getLong("history.recentSegments", 2));
+            System.out.println("历史记录已打开，已加载最近 " + historyRepository.size() + " 条记录");
+            if (history instanceof SegmentedHistoryJournal) {
+                SegmentedHistoryJournal journal = (SegmentedHistoryJournal) history;
+                System.out.println("历史记录日志共 " + journal.segmentCount() + " 个分段");
+                compressColdHistory(journal, (int) ThinkingPadConfig.getLong("history.compressAfterMonths", 3));
+            }
+        } catch (IOException e) {
+            System.err.println("打开历史记录日志失败: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    // 按 selection.mode 选择首页的抽题方式：shuffle（默认）、schedule（间隔重复）或 weighted（按权重文件加权）
+    private void initializeSelector() {
+        if (lazyQuestions != null) {
+            questionSelector = lazyQuestions.shuffled();
+            return;
+        }
+        String mode = ThinkingPadConfig.get("selection.mode", "shuffle");
+        if ("weighted".equalsIgnoreCase(mode)) {
+            QuestionAliasSampler sampler = new QuestionAliasSampler(questions, new File(WEIGHTS_FILE),
+                storage != null ? storage.questionFile() : null);
+            questionSelector = sampler;
+            try {
+                weightWatcher = new QuestionFileWatcher(new File(WEIGHTS_FILE),
+                    (int) ThinkingPadConfig.getLong("questions.watchDebounceMs", 500), sampler::weightsChanged);
+            } catch (IOException e) {
+                System.err.println("无法监视问题权重文件: " + e.getMessage());
+            }
+        } else if ("schedule".equalsIgnoreCase(mode)) {
+            questionSelector = QuestionScheduler.open(new File(SCHEDULE_FILE), questions,
+                storage != null ? storage.history() : null,
+                (int) ThinkingPadConfig.getLong("schedule.maxIntervalDays", 180),
+                (int) ThinkingPadConfig.getLong("schedule.skipMinutes", 10));
+        } else {
+            questionSelector = new QuestionShuffleBag(questions);
+        }
+    }
+    
+    // 恢复上次未保存的答案草稿，之后开始记录输入框的修改
+    private void restoreDraft() {
+        if (answerArea == null) {
+            return;
+        }
+        draftJournal = DraftJournal.open(new File(DRAFT_FILE), (int) ThinkingPadConfig.getLong("draft.debounceMs", 500));
+        String current = questionLabel != null ? questionLabel.getCurrentQuestion() : "";
+        DraftJournal.Draft draft = draftJournal.restored();
+        if (draft == null) {
+            draftJournal.attach(answerArea.getDocument(), current, false);
+            return;
+        }
+        String question = draft.question.isEmpty() ? current : draft.question;
+        if (questionLabel != null && !question.equals(current)) {
+            questionLabel.animateToNewText("<html><div style='text-align: center; padding: 15px; line-height: 1.6;'>" + 
+                                           question + "</div></html>");
+        }
+        answerArea.setText(draft.text);
+        draftJournal.attach(answerArea.getDocument(), question, question.equals(draft.question));
+        showNotification("草稿已恢复", "已恢复上次未保存的答案", NotificationPanel.NotificationType.INFO);
+    }
+    
+    // 在后台把较早的历史分段压缩为冷分段
+    private void compressColdHistory(SegmentedHistoryJournal journal, int afterMonths) {
+        new Thread(() -> {
+            try {
+                journal.compressColdSegments(afterMonths);
+            } catch (IOException e) {
+                System.err.println("压缩历史记录分段失败: " + e.getMessage());
+            }
+        }, "history-compressor").start();
+    }
+    
+    // 供其他窗口共享同一个历史记录仓库
+    public HistoryRepository getHistoryRepository() {
+        return historyRepository;
+    }
+    
+    // 供其他窗口读写题库
+    public ThinkingPadStorage getStorage() {
+        return storage;
+    }
+    
     private void loadImportedQuestionsFromFile() {
+        if (storage == null) {
+            return;
+        }
         try {
-            File file = new File(QUESTIONS_FILE);
-            if (file.exists()) {
-                // 尝试多种编码方式读取文件
-                String[] encodings = {"UTF-8", "GBK", "GB2312", "ISO-8859-1"};
-                boolean loadedSuccessfully = false;
-                Exception lastException = null;
-                
-                for (String encoding : encodings) {
-                    try {
-                        questions.clear(); // 清空之前可能加载的错误数据
-                        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(QUESTIONS_FILE), encoding))) {
-                            String line;
-                            int lineNumber = 0;
-                            int loadedCount = 0;
-                            
-                            while ((line = reader.readLine()) != null) {
-                                lineNumber++;
-                                line = line.trim();
-                                if (!line.isEmpty() && !line.startsWith("#")) { // 忽略空行和注释行
-                                    // 检查是否包含乱码字符（替换字符）
-                                    if (!line.contains("\uFFFD")) { // 检查Unicode替换字符
-                                        questions.add(line);
-                                        loadedCount++;
-                                    }
-                                }
-                            }
-                            
-                            // 如果成功读取到有效问题，且没有乱码，则使用这个编码
-                            if (loadedCount > 0) {
-                                System.out.println("使用 " + encoding + " 编码成功加载 " + loadedCount + " 个问题（共 " + lineNumber + " 行）");
-                                loadedSuccessfully = true;
-                                break;
-                            }
-                        }
-                    } catch (Exception e) {
-                        lastException = e;
-                        continue;
-                    }
+            ArrayList<String> loaded = storage.loadQuestions();
+            QuestionBank snapshot = questions.replaceAll(loaded);
+            System.out.println("成功加载 " + loaded.size() + " 个问题，题库占用 " + (snapshot.memoryBytes() / 1024) + " KB");
+        } catch (Exception e) {
+            System.err.println("加载问题文件失败: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    // 监视题库文件，外部编辑器保存后增量更新题库
+    private void startQuestionWatcher() {
+        if (storage == null || storage.questionFile() == null) {
+            return;
+        }
+        try {
+            questionWatcher = new QuestionFileWatcher(storage.questionFile(),
+                (int) ThinkingPadConfig.getLong("questions.watchDebounceMs", 500), this::reloadChangedQuestions);
+        } catch (IOException e) {
+            System.err.println("无法监视题库文件: " + e.getMessage());
+        }
+    }
+    
+    // 题库文件变化后调用（EDT）：在后台重新读取文件并与内存题库按行哈希比较，只应用新增和删除的问题
+    // 程序自己写入题库时内存已经是最新的，比较结果为空，不会重复应用
+    private void reloadChangedQuestions() {
+        // 只改了分类标题时题库不变，标签索引单独重建（按需读取时没有标签索引）
+        if (lazyQuestions == null) {
+            tagIndex.fileChanged();
+            if (questionSelector instanceof QuestionAliasSampler) {
+                ((QuestionAliasSampler) questionSelector).questionFileChanged();
+            }
+        }
+        // 导入进行中时题库由导入负责更新
+        if (currentImport != null) {
+            return;
+        }
+        if (questionReloadRunning) {
+            questionReloadPending = true;
+            return;
+        }
+        questionReloadRunning = true;
+        if (lazyQuestions != null) {
+            reloadLazyQuestions();
+            return;
+        }
+        QuestionBank snapshot = questions.snapshot();
+        new Thread(() -> {
+            QuestionBankDiff diff = null;
+            try {
+                File file = storage.questionFile();
+                // 文件暂时不存在（编辑器先删除再写入）时保留当前题库
+                if (file.exists()) {
+                    diff = QuestionBankDiff.compute(snapshot, FlatFileStorage.readQuestionFile(file));
                 }
-                
-                if (!loadedSuccessfully) {
-                    System.err.println("所有编码尝试都失败了，使用UTF-8加载（可能有乱码）");
-                    // 最后尝试UTF-8，即使可能有乱码
-                    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(QUESTIONS_FILE), "UTF-8"))) {
-                        String line;
-                        int lineNumber = 0;
-                        int loadedCount = 0;
-                        
-                        while ((line = reader.readLine()) != null) {
-                            lineNumber++;
-                            line = line.trim();
-                            if (!line.isEmpty() && !line.startsWith("#")) {
-                                questions.add(line);
-                                loadedCount++;
-                            }
+            } catch (IOException e) {
+                System.err.println("重新读取题库文件失败: " + e.getMessage());
+            }
+            QuestionBankDiff result = diff;
+            SwingUtilities.invokeLater(() -> {
+                if (result != null && !result.isEmpty() && currentImport == null) {
+                    applyQuestionDiff(result);
+                }
+                finishQuestionReload();
+            });
+        }, "question-reload").start();
+    }
+    
+    // 按需读取模式：在后台重建行索引，在EDT中释放旧映射后换上新索引
+    private void reloadLazyQuestions() {
+        File file = storage.questionFile();
+        File indexFile = new File(QUESTIONS_INDEX_FILE);
+        new Thread(() -> {
+            File built = null;
+            try {
+                if (LazyQuestionBank.isUtf8(file)) {
+                    built = LazyQuestionBank.buildIndex(file, indexFile);
+                } else {
+                    System.err.println("题库文件不是UTF-8编码，保留原来的题库");
+                }
+            } catch (IOException e) {
+                System.err.println("重建题库索引失败: " + e.getMessage());
+            }
+            File result = built;
+            SwingUtilities.invokeLater(() -> {
+                if (result != null) {
+                    lazyQuestions.close();
+                    try {
+                        lazyQuestions = LazyQuestionBank.install(file, result, indexFile);
+                        questionSelector = lazyQuestions.shuffled();
+                        showNotification("题库已更新", "共 " + lazyQuestions.size() + " 个问题", NotificationPanel.NotificationType.INFO);
+                    } catch (IOException e) {
+                        // 改为全部加载：空的内存题库与题库文件比较后会加入所有问题
+                        System.err.println("打开题库索引失败，改为全部加载: " + e.getMessage());
+                        lazyQuestions = null;
+                        questionSelector = new QuestionShuffleBag(questions);
+                        tagIndex.close();
+                        tagIndex = new QuestionTagIndex(questions, file);
+                        tagIndex.setRebuiltListener(this::reapplyTagFilter);
+                        if (filterButton != null) {
+                            filterButton.setVisible(true);
                         }
-                        System.out.println("UTF-8加载完成（可能有乱码）：" + loadedCount + " 个问题（共 " + lineNumber + " 行）");
+                        questionReloadPending = true;
                     }
                 }
-                
-                if (questions.isEmpty()) {
-                    System.out.println("警告：问题文件存在但未找到有效问题");
-                }
-            } else {
-                System.out.println("问题文件不存在: " + QUESTIONS_FILE);
+                finishQuestionReload();
+            });
+        }, "question-reload").start();
+    }
+    
+    // 替换或删除题库文件前调用（EDT）：Windows下被映射或打开的文件不能替换或删除，先释放映射并换成空题库，
+    // 文件变化后由reloadLazyQuestions重建索引并重新映射
+    private void releaseLazyQuestions() {
+        if (lazyQuestions != null) {
+            lazyQuestions.close();
+            lazyQuestions = LazyQuestionBank.empty();
+            questionSelector = lazyQuestions.shuffled();
+        }
+    }
+    
+    // 重新读取结束（EDT）：期间题库文件又有变化时再读取一次
+    private void finishQuestionReload() {
+        questionReloadRunning = false;
+        if (questionReloadPending) {
+            questionReloadPending = false;
+            reloadChangedQuestions();
+        }
+    }
+    
+    // 把题库差异应用到题库和已导入问题列表（在EDT中调用）
+    private void applyQuestionDiff(QuestionBankDiff diff) {
+        if (!diff.removed.isEmpty()) {
+            HashMap<String, Integer> pending = new HashMap<>();
+            for (String question : diff.removed) {
+                pending.merge(question, 1, Integer::sum);
             }
-        } catch (Exception e) {
-            System.err.println("加载问题文件失败: " + e.getMessage());
-            e.printStackTrace();
+            importedListModel.removeIf(question -> consumeOne(pending, question), diff.removed.size());
+        }
+        importedListModel.addAll(diff.added);
+        System.out.println("题库文件已变化：新增 " + diff.added.size() + " 个问题，删除 " + diff.removed.size() + " 个问题");
+        showNotification("题库已更新", "新增 " + diff.added.size() + " 个问题，删除 " + diff.removed.size() + " 个问题",
+            NotificationPanel.NotificationType.INFO);
+    }
+    
+    private static boolean consumeOne(HashMap<String, Integer> counts, String question) {
+        Integer count = counts.get(question);
+        if (count == null) {
+            return false;
+        }
+        if (count == 1) {
+            counts.remove(question);
+        } else {
+            counts.put(question, count - 1);
         }
+        return true;
     }
     
     // 公开的重新加载导入问题方法，供其他类调用
@@ -4062,119 +10869,171 @@ public class ThinkingPad {
     private void importQuestions() {
         // 确保文件选择器在EDT线程中运行
         SwingUtilities.invokeLater(() -> {
+            // 导入进行中时再次点击按钮即取消导入，已导入的部分会保留
+            if (currentImport != null) {
+                currentImport.cancel();
+                return;
+            }
+            if (storage == null) {
+                showNotification("错误", "存储未能打开，无法导入问题", NotificationPanel.NotificationType.ERROR);
+                return;
+            }
+            
             JFileChooser fileChooser = new JFileChooser();
             fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("文本文件 (*.txt)", "txt"));
             fileChooser.setDialogTitle("选择问题文件");
             
+            // 导入方式：替换现有题库，或合并到现有题库并去重
+            JCheckBox mergeCheckBox = new JCheckBox("合并到现有题库并去重");
+            mergeCheckBox.setSelected("merge".equalsIgnoreCase(ThinkingPadConfig.get("import.mode", "replace")));
+            fileChooser.setAccessory(mergeCheckBox);
+            
             int result = fileChooser.showOpenDialog(frame);
             if (result == JFileChooser.APPROVE_OPTION) {
                 File selectedFile = fileChooser.getSelectedFile();
-                // 在新线程中处理文件读取，避免阻塞UI
+                // 合并模式需要现有问题来重建去重集合，取当前快照即可，不必复制
+                java.util.List<String> existing = lazyQuestions != null ? lazyQuestions : questions.snapshot();
+                boolean merge = mergeCheckBox.isSelected() && !existing.isEmpty();
+                QuestionImporter importer = new QuestionImporter();
+                currentImport = importer;
+                importButton.setText("取消 0%");
+                
+                boolean[] firstChunk = { true };
+                
+                // 在新线程中流式读取文件，避免阻塞UI
                 new Thread(() -> {
+                    long imported = 0;
+                    Exception failure = null;
                     try {
-                        // 读取选中的文件
-                        ArrayList<String> newQuestions = new ArrayList<>();
-                        String line;
-                        int lineNumber = 0;
-                        
-                        // 尝试多种编码方式读取文件
-                        String[] encodings = {"UTF-8", "GBK", "GB2312", "ISO-8859-1"};
-                        boolean loadedSuccessfully = false;
-                        Exception lastException = null;
-                        
-                        for (String encoding : encodings) {
-                            try {
-                                newQuestions.clear(); // 清空之前可能加载的错误数据
-                                try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(selectedFile), encoding))) {
-                                    while ((line = reader.readLine()) != null) {
-                                        lineNumber++;
-                                        line = line.trim();
-                                        if (!line.isEmpty() && !line.startsWith("#")) {
-                                            // 检查是否包含乱码字符（替换字符）
-                                            if (!line.contains("\uFFFD")) { // 检查Unicode替换字符
-                                                newQuestions.add(line);
-                                            }
-                                        }
-                                    }
+                        QuestionHashSet hashes = null;
+                        if (merge) {
+                            hashes = loadQuestionHashes(existing, storage);
+                            importer.setMergeInto(hashes);
+                        }
+                        // 文件存储由导入器直接写题库文件；数据库存储没有题库文件，每一块在回调中写入数据库
+                        File questionFile = storage.questionFile();
+                        imported = importer.run(selectedFile, questionFile, (chunk, bytesRead, totalBytes) -> {
+                            // 在导入线程中把这一块加入题库并发布新快照，界面只需显示新快照
+                            // 替换模式在第一块到达时才替换旧题库，文件中没有有效问题时旧题库保持不变
+                            boolean first = firstChunk[0] && !merge;
+                            firstChunk[0] = false;
+                            if (questionFile == null) {
+                                if (first) {
+                                    storage.replaceQuestions(chunk);
+                                } else {
+                                    storage.appendQuestions(chunk);
                                 }
-                                
-                                // 如果成功读取到有效问题，且没有乱码，则使用这个编码
-                                if (newQuestions.size() > 0) {
-                                    System.out.println("使用 " + encoding + " 编码成功读取 " + newQuestions.size() + " 个问题");
-                                    loadedSuccessfully = true;
-                                    break;
+                            }
+                            // 按需读取模式不把问题加入内存，导入完成后重建索引
+                            boolean lazy = lazyQuestions != null;
+                            if (first && lazy) {
+                                // 替换模式最后要把新文件移到题库文件上，先释放旧题库文件的映射
+                                try {
+                                    SwingUtilities.invokeAndWait(ThinkingPad.this::releaseLazyQuestions);
+                                } catch (java.lang.reflect.InvocationTargetException e) {
+                                    throw new IOException("释放题库文件失败", e.getCause());
                                 }
-                            } catch (Exception e) {
-                                lastException = e;
-                                continue;
                             }
-                        }
-                        
-                        // 如果所有编码都失败了，最后尝试UTF-8
-                        if (!loadedSuccessfully) {
-                            System.err.println("所有编码尝试都失败了，使用UTF-8加载（可能有乱码）");
-                            newQuestions.clear();
-                            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(selectedFile), "UTF-8"))) {
-                                while ((line = reader.readLine()) != null) {
-                                    lineNumber++;
-                                    line = line.trim();
-                                    if (!line.isEmpty() && !line.startsWith("#")) {
-                                        newQuestions.add(line);
-                                    }
+                            if (!lazy) {
+                                if (first) {
+                                    questions.replaceAll(chunk);
+                                } else {
+                                    questions.addAll(chunk);
                                 }
                             }
-                        }
-                        
-                        if (newQuestions.isEmpty()) {
+                            int percent = totalBytes > 0 ? (int) Math.min(100, bytesRead * 100 / totalBytes) : 100;
                             SwingUtilities.invokeLater(() -> {
-                                showNotification("错误", "文件中没有找到有效的问题", NotificationPanel.NotificationType.ERROR);
+                                if (first && !lazy) {
+                                    showQuestionFromNewBank();
+                                }
+                                if (currentImport == importer) {
+                                    importButton.setText("取消 " + percent + "%");
+                                }
                             });
-                            return;
+                        });
+                        if (hashes != null && questionFile != null) {
+                            hashes.save(new File(QUESTIONS_HASH_FILE), questionFile);
                         }
-                        
-                        // 保存到问题文件
-                        try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(QUESTIONS_FILE), "UTF-8"))) {
-                            for (String question : newQuestions) {
-                                writer.println(question);
-                            }
+                    } catch (Exception e) {
+                        failure = e;
+                    }
+                    
+                    long total = imported;
+                    Exception error = failure;
+                    SwingUtilities.invokeLater(() -> {
+                        currentImport = null;
+                        importButton.setText("导入问题");
+                        if (lazyQuestions != null) {
+                            reloadChangedQuestions();
                         }
                         
-                        // 重新加载问题
-                        questions.clear();
-                        loadImportedQuestionsFromFile();
-                        
-                        SwingUtilities.invokeLater(() -> {
+                        if (error != null) {
+                            showNotification("导入失败", error.getMessage() + (importer.getImportedCount() > 0 ? 
+                                "（已保留 " + importer.getImportedCount() + " 个问题）" : ""), NotificationPanel.NotificationType.ERROR);
+                        } else if (importer.isCancelled()) {
+                            showNotification("导入已取消", "已保留 " + total + " 个问题", NotificationPanel.NotificationType.WARNING);
+                        } else if (importer.isMerge()) {
+                            showNotification("合并成功", 
+                                "新增 " + total + " 个问题，跳过 " + importer.getSkippedCount() + " 个重复问题。文件: " + selectedFile.getName(), 
+                                NotificationPanel.NotificationType.SUCCESS);
+                        } else if (total == 0) {
+                            showNotification("错误", "文件中没有找到有效的问题", NotificationPanel.NotificationType.ERROR);
+                        } else {
                             showNotification("导入成功", 
-                                "成功导入 " + newQuestions.size() + " 个问题！文件: " + selectedFile.getName(), 
+                                "成功导入 " + total + " 个问题！文件: " + selectedFile.getName(), 
                                 NotificationPanel.NotificationType.SUCCESS);
-                            
-                            // 刷新显示第一个问题
-                            if (!questions.isEmpty() && questionLabel != null) {
-                                String question = getRandomQuestion();
-                                if (question != null && !question.trim().isEmpty()) {
-                                    String newQuestion = "<html><div style='text-align: center; padding: 15px; line-height: 1.6;'>" + 
-                                                       question + "</div></html>";
-                                    questionLabel.animateToNewText(newQuestion);
-                                    if (answerArea != null) {
-                                        answerArea.setText("");
-                                    }
-                                }
-                            }
-                            
-                            // 导入成功后刷新已导入问题选项卡
-                            refreshImportedTab();
-                        });
-                        
-                    } catch (Exception e) {
-                        SwingUtilities.invokeLater(() -> {
-                            showNotification("导入失败", e.getMessage(), NotificationPanel.NotificationType.ERROR);
-                        });
-                    }
-                }).start();
+                        }
+                    });
+                }, "question-import").start();
             }
         });
     }
     
+    // 合并导入前准备去重哈希集合：优先加载持久化的集合，与题库文件不一致时按现有问题重建
+    // 数据库存储没有题库文件（store为null），每次按现有问题重建
+    private static QuestionHashSet loadQuestionHashes(java.util.List<String> existing, ThinkingPadStorage storage) throws IOException {
+        File store = storage.questionFile();
+        // 合并以UTF-8追加，旧题库不是UTF-8编码时先按UTF-8重写一次（按需读取的题库已经是UTF-8），重写保留分类标题
+        if (existing instanceof QuestionBank && store != null && store.exists() && store.length() > 0) {
+            byte[] sample;
+            try (InputStream in = new FileInputStream(store)) {
+                sample = in.readNBytes(QuestionImporter.SAMPLE_SIZE);
+            }
+            CharsetDetector.Result detected = CharsetDetector.detect(sample, sample.length, sample.length < store.length());
+            if (detected.charset != StandardCharsets.UTF_8) {
+                storage.replaceQuestions(existing);
+            }
+        }
+        
+        QuestionHashSet hashes = store != null ? QuestionHashSet.load(new File(QUESTIONS_HASH_FILE), store) : null;
+        if (hashes == null) {
+            hashes = new QuestionHashSet(existing.size() + QuestionImporter.CHUNK_LINES);
+            for (String question : existing) {
+                hashes.add(QuestionHashSet.hash(question));
+            }
+            System.out.println("已按现有题库重建去重哈希集合，共 " + hashes.size() + " 个问题");
+        }
+        return hashes;
+    }
+    
+    // 替换模式的第一块发布后立即显示一个新问题，其余部分继续在后台导入（在EDT中调用）
+    private void showQuestionFromNewBank() {
+        if (questionLabel != null) {
+            String question = getRandomQuestion();
+            if (question != null && !question.trim().isEmpty()) {
+                String newQuestion = "<html><div style='text-align: center; padding: 15px; line-height: 1.6;'>" + 
+                                   question + "</div></html>";
+                questionLabel.animateToNewText(newQuestion);
+                if (answerArea != null) {
+                    answerArea.setText("");
+                }
+                if (draftJournal != null) {
+                    draftJournal.reset(question);
+                }
+            }
+        }
+    }
+    
     public void showNotification(String title, String message, NotificationPanel.NotificationType type) {
         // 确保在EDT线程中执行
         if (!SwingUtilities.isEventDispatchThread()) {
@@ -4231,6 +11090,19 @@ public class ThinkingPad {
         notification.showNotification();
     }
     
+    // 再次启动程序时调用（EDT）：恢复最小化的主窗口并置于前台
+    private void bringToFront() {
+        if (frame == null) {
+            return;
+        }
+        if ((frame.getExtendedState() & Frame.ICONIFIED) != 0) {
+            frame.setExtendedState(frame.getExtendedState() & ~Frame.ICONIFIED);
+        }
+        frame.setVisible(true);
+        frame.toFront();
+        frame.requestFocus();
+    }
+    
     private void createGUI() {
         frame = new JFrame("ThinkingPad - 深度思考与自我探索");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -4549,13 +11421,15 @@ public class ThinkingPad {
         JPanel buttonPanelContainer = new JPanel(new BorderLayout());
         buttonPanelContainer.setOpaque(false);
         
-        // 首页按钮面板 - 导入、保存、刷新、全屏、退出按钮
+        // 首页按钮面板 - 导入、保存、刷新、分类、全屏、退出按钮
         JPanel homeButtonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 15, 15));
         homeButtonPanel.setOpaque(false);
         
-        ModernButton importButton = new ModernButton("导入问题", new Color(76, 175, 80), new Color(56, 142, 60));
-        ModernButton saveButton = new ModernButton("保存", new Color(33, 150, 243), new Color(21, 101, 192));
+        importButton = new ModernButton("导入问题", new Color(76, 175, 80), new Color(56, 142, 60));
+        saveButton = new ModernButton("保存", new Color(33, 150, 243), new Color(21, 101, 192));
         ModernButton refreshButton = new ModernButton("刷新", new Color(156, 39, 176), new Color(123, 31, 162));
+        filterButton = new ModernButton("分类", new Color(0, 150, 136), new Color(0, 121, 107));
+        filterButton.setVisible(lazyQuestions == null);
         ModernButton fullscreenButton = new ModernButton("全屏", new Color(255, 193, 7), new Color(255, 160, 0));
         ModernButton exitButton = new ModernButton("退出", new Color(244, 67, 54), new Color(229, 57, 53));
         
@@ -4563,6 +11437,7 @@ public class ThinkingPad {
         importButton.setPreferredSize(new Dimension(120, 45));
         saveButton.setPreferredSize(new Dimension(120, 45));
         refreshButton.setPreferredSize(new Dimension(120, 45));
+        filterButton.setPreferredSize(new Dimension(120, 45));
         fullscreenButton.setPreferredSize(new Dimension(120, 45));
         exitButton.setPreferredSize(new Dimension(120, 45));
         
@@ -4570,6 +11445,7 @@ public class ThinkingPad {
         importButton.addActionListener(e -> importQuestions());
         saveButton.addActionListener(e -> saveAnswer());
         refreshButton.addActionListener(e -> refreshQuestion());
+        filterButton.addActionListener(e -> showTagFilterMenu(filterButton));
         fullscreenButton.addActionListener(e -> toggleMainWindowFullscreen());
         exitButton.addActionListener(e -> {
             ModernConfirmDialog dialog = new ModernConfirmDialog(frame, 
@@ -4584,6 +11460,7 @@ public class ThinkingPad {
         homeButtonPanel.add(importButton);
         homeButtonPanel.add(saveButton);
         homeButtonPanel.add(refreshButton);
+        homeButtonPanel.add(filterButton);
         homeButtonPanel.add(fullscreenButton);
         homeButtonPanel.add(exitButton);
         
@@ -4706,7 +11583,7 @@ public class ThinkingPad {
                 System.out.println("焦点设置完成");
                 
                 // 窗口完全显示后，如果已有导入问题，刷新已导入问题选项卡
-                if (!questions.isEmpty()) {
+                if (!questions.snapshot().isEmpty()) {
                     refreshImportedTab();
                     System.out.println("已刷新已导入问题选项卡显示");
                 }
@@ -4745,6 +11622,34 @@ public class ThinkingPad {
                 notificationContainer.removeAll();
             }
             
+            if (questionWatcher != null) {
+                questionWatcher.close();
+            }
+            // 写出最后的修改，草稿保留到下次启动
+            if (draftJournal != null) {
+                draftJournal.close();
+            }
+            if (weightWatcher != null) {
+                weightWatcher.close();
+            }
+            if (tagIndex != null) {
+                tagIndex.close();
+            }
+            if (lazyQuestions != null) {
+                lazyQuestions.close();
+            }
+            if (questionSelector != null) {
+                questionSelector.close();
+            }
+            
+            // 写完队列中的记录后关闭历史记录日志
+            if (historyWriter != null) {
+                historyWriter.close();
+            }
+            if (storage != null) {
+                storage.close();
+            }
+        
         } catch (Exception e) {
             System.err.println("清理资源时出错: " + e.getMessage());
         }
@@ -4773,19 +11678,86 @@ public class ThinkingPad {
     }
     
     private String getRandomQuestion() {
-        if (questions == null || questions.isEmpty()) {
-            return "请先导入问题文件  文件格式要求：每行一个问题  支持.txt格式  #开头的行会被忽略为注释";
-        }
+        // 抽题方式在自己跟踪的快照上抽取，导入线程同时替换题库也不会越界
         try {
-            Random random = new Random();
-            String question = questions.get(random.nextInt(questions.size()));
-            return question != null ? question.trim() : "";
+            QuestionSelector selector = tagFilter != null ? tagFilter : questionSelector;
+            String question = selector != null ? selector.next() : null;
+            if (question == null && tagFilter != null) {
+                return "没有符合分类筛选条件的问题";
+            }
+            if (question == null) {
+                return "请先导入问题文件  文件格式要求：每行一个问题  支持.txt格式  #开头的行是分类标题";
+            }
+            return question.trim();
         } catch (Exception e) {
             System.err.println("获取随机问题出错: " + e.getMessage());
             return "获取问题失败，请重新导入问题文件";
         }
     }
     
+    // 分类筛选菜单：勾选的分类满足其一即可，也可以输入与/或组合条件
+    private void showTagFilterMenu(Component invoker) {
+        ModernPopupMenu menu = new ModernPopupMenu();
+        String[] tags = tagIndex.tags();
+        String expression = tagFilter != null ? tagFilter.expression() : "";
+        // 当前条件只是若干分类满足其一时，在菜单中勾选这些分类
+        LinkedHashSet<String> checked = new LinkedHashSet<>();
+        if (!expression.contains("&")) {
+            for (String tag : expression.split("\\|")) {
+                if (!tag.trim().isEmpty()) {
+                    checked.add(tag.trim());
+                }
+            }
+        }
+        
+        JMenuItem allItem = new JMenuItem("全部问题");
+        allItem.addActionListener(e -> applyTagFilter(null));
+        menu.add(allItem);
+        if (tags.length > 0) {
+            menu.addSeparator();
+        }
+        for (String tag : tags) {
+            JCheckBoxMenuItem item = new JCheckBoxMenuItem(tag, checked.contains(tag));
+            item.addActionListener(e -> {
+                LinkedHashSet<String> selected = new LinkedHashSet<>(checked);
+                if (!selected.remove(tag)) {
+                    selected.add(tag);
+                }
+                applyTagFilter(selected.isEmpty() ? null : String.join("|", selected));
+            });
+            menu.add(item);
+        }
+        menu.addSeparator();
+        JMenuItem customItem = new JMenuItem("组合条件...");
+        customItem.addActionListener(e -> {
+            String input = JOptionPane.showInputDialog(frame,
+                "用 & 表示同时满足，| 表示满足其一，例如：哲学&人生|工作", expression);
+            if (input != null) {
+                applyTagFilter(input.trim().isEmpty() ? null : input.trim());
+            }
+        });
+        menu.add(customItem);
+        menu.show(invoker, 0, -menu.getPreferredSize().height);
+    }
+    
+    private void applyTagFilter(String expression) {
+        if (expression == null) {
+            tagFilter = null;
+            showNotification("分类筛选", "已显示全部问题", NotificationPanel.NotificationType.INFO);
+        } else {
+            tagFilter = tagIndex.filter(expression);
+            showNotification("分类筛选", expression + "：共 " + tagFilter.size() + " 个问题", NotificationPanel.NotificationType.INFO);
+        }
+        refreshQuestion();
+    }
+    
+    // 标签索引重建后按新的题库重新计算筛选结果（EDT）
+    private void reapplyTagFilter() {
+        if (tagFilter != null) {
+            tagFilter = tagIndex.filter(tagFilter.expression());
+        }
+    }
+    
     private void saveAnswer() {
         // 确保在EDT线程中执行
         if (!SwingUtilities.isEventDispatchThread()) {
@@ -4799,6 +11771,11 @@ public class ThinkingPad {
             question = questionLabel.getCurrentQuestion();
         }
         
+        // 上一次保存还没有完成
+        if (saving) {
+            return;
+        }
+        
         // 验证问题文本，确保不包含HTML标签和多余空格
         if (question == null || question.trim().isEmpty()) {
             showNotification("提示", "无法获取当前问题，请刷新后再试", NotificationPanel.NotificationType.WARNING);
@@ -4815,33 +11792,47 @@ public class ThinkingPad {
             return;
         }
         
-        try {
-            String timestamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
-            
-            try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(DATA_FILE, true), "UTF-8"))) {
-                writer.println("问题：" + question);
-                writer.println("我的思考：" + answer);
-                writer.println("记录时间：" + timestamp);
-                writer.println("---");
+        if (historyRepository == null) {
+            showNotification("保存失败", "历史记录日志未打开", NotificationPanel.NotificationType.ERROR);
+            return;
+        }
+        
+        String timestamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
+        String savedQuestion = question;
+        String savedAnswer = answer;
+        saving = true;
+        if (saveButton != null) {
+            saveButton.setEnabled(false);
+        }
+        
+        // 只负责入队，写入线程完成写入后在EDT中回调；历史记录选项卡通过仓库的通知增量更新
+        historyRepository.save(question, answer, timestamp).whenComplete((entry, error) -> SwingUtilities.invokeLater(() -> {
+            saving = false;
+            if (saveButton != null) {
+                saveButton.setEnabled(true);
+            }
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                showNotification("保存失败", cause.getMessage(), NotificationPanel.NotificationType.ERROR);
+                return;
             }
             
             showNotification("保存成功", "答案已保存到历史记录", NotificationPanel.NotificationType.SUCCESS);
+            if (questionSelector != null) {
+                questionSelector.answered(entry.getQuestion(), System.currentTimeMillis());
+            }
             
-            // 保存成功后自动刷新到下一个问题并清空输入框
-            SwingUtilities.invokeLater(() -> {
-                refreshQuestion();
-                // 确保输入框可用并获得焦点
-                if (answerArea != null) {
-                    answerArea.requestFocus();
-                }
-            });
-            
-            // 保存成功后刷新历史记录选项卡
-            refreshHistoryTab();
-            
-        } catch (Exception ex) {
-            showNotification("保存失败", ex.getMessage(), NotificationPanel.NotificationType.ERROR);
-        }
+            // 保存成功后自动刷新到下一个问题并清空输入框；等待期间换了问题或又输入了内容时保留输入框
+            if (questionLabel == null || !savedQuestion.equals(questionLabel.getCurrentQuestion())
+                    || (answerArea != null && !savedAnswer.equals(answerArea.getText().trim()))) {
+                return;
+            }
+            refreshQuestion();
+            // 确保输入框可用并获得焦点
+            if (answerArea != null) {
+                answerArea.requestFocus();
+            }
+        }));
     }
     
     private void refreshQuestion() {
@@ -4858,6 +11849,9 @@ public class ThinkingPad {
                                      question + "</div></html>";
                 questionLabel.animateToNewText(newQuestion);
                 answerArea.setText("");
+                if (draftJournal != null) {
+                    draftJournal.reset(question);
+                }
                 
                 // 切换背景图片（如果有多张图片）
                 if (backgroundPanel != null) {
@@ -5003,8 +11997,10 @@ public class ThinkingPad {
         listLabel.setForeground(new Color(255, 255, 255));
         listLabel.setBorder(BorderFactory.createEmptyBorder(0, 0, 15, 0));
         
-        DefaultListModel<String> historyListModel = new DefaultListModel<>();
-        JList<String> historyQuestionList = new AnimatedJList(historyListModel, loadHistoryEntries());
+        if (historyRepository != null) {
+            historyListModel.attach(historyRepository);
+        }
+        JList<String> historyQuestionList = new AnimatedJList(historyListModel);
         historyQuestionList.setFont(new Font("微软雅黑", Font.PLAIN, 14));
         historyQuestionList.setForeground(Color.WHITE);
         historyQuestionList.setOpaque(false);
@@ -5015,13 +12011,13 @@ public class ThinkingPad {
         ModernPopupMenu popupMenu = new ModernPopupMenu();
         JMenuItem deleteItem = new JMenuItem("删除记录");
         deleteItem.setForeground(Color.WHITE);
-        deleteItem.addActionListener(e -> deleteHistoryRecord(historyQuestionList, historyListModel));
+        deleteItem.addActionListener(e -> deleteHistoryRecord(historyQuestionList));
         popupMenu.add(deleteItem);
         
         historyQuestionList.setComponentPopupMenu(popupMenu);
         historyQuestionList.addListSelectionListener(e -> {
             if (!e.getValueIsAdjusting()) {
-                showHistoryContent(historyQuestionList.getSelectedValue(), contentPanel);
+                showHistoryContent(historyQuestionList.getSelectedIndex(), contentPanel);
             }
         });
         
@@ -5056,6 +12052,8 @@ public class ThinkingPad {
         leftScrollPane.getVerticalScrollBar().setUI(new ModernScrollBarUI());
         leftScrollPane.getHorizontalScrollBar().setOpaque(false);
         leftScrollPane.getHorizontalScrollBar().setUI(new ModernScrollBarUI());
+        // 滚动到顶部后按需加载更早的历史记录
+        OlderHistoryLoader.install(historyQuestionList, leftScrollPane, historyRepository);
         
         leftPanel.add(listLabel, BorderLayout.NORTH);
         leftPanel.add(leftScrollPane, BorderLayout.CENTER);
@@ -5113,12 +12111,8 @@ public class ThinkingPad {
         importedPanel.add(titleLabel, BorderLayout.NORTH);
         importedPanel.add(contentPanel, BorderLayout.CENTER);
         
-        DefaultListModel<String> importedListModel = new DefaultListModel<>();
-        // 初始化时就添加所有已导入问题到列表模型
-        for (String question : questions) {
-            importedListModel.addElement(question);
-        }
-        JList<String> importedList = new AnimatedJListForImported(importedListModel, questions);
+        // 列表模型直接展示题库，不再复制一份问题
+        JList<String> importedList = new AnimatedJListForImported(importedListModel);
         importedList.setFont(new Font("微软雅黑", Font.PLAIN, 14));
         importedList.setForeground(Color.WHITE);
         importedList.setOpaque(false);
@@ -5129,7 +12123,7 @@ public class ThinkingPad {
         ModernPopupMenu importedPopupMenu = new ModernPopupMenu();
         JMenuItem deleteImportedItem = new JMenuItem("删除问题");
         deleteImportedItem.setForeground(Color.WHITE);
-        deleteImportedItem.addActionListener(e -> deleteImportedQuestion(importedList, importedListModel));
+        deleteImportedItem.addActionListener(e -> deleteImportedQuestion(importedList));
         importedPopupMenu.add(deleteImportedItem);
         
         importedList.setComponentPopupMenu(importedPopupMenu);
@@ -5171,89 +12165,17 @@ public class ThinkingPad {
         return importedPanel;
     }
     
-    // 加载历史记录条目
-    public ArrayList<HistoryEntry> loadHistoryEntries() {
-        ArrayList<HistoryEntry> entries = new ArrayList<>();
-        try {
-            File file = new File(DATA_FILE);
-            if (file.exists()) {
-                try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(DATA_FILE), "UTF-8"))) {
-                    String line;
-                    String currentQuestion = "";
-                    String currentAnswer = "";
-                    String currentTimestamp = "";
-                    
-                    while ((line = reader.readLine()) != null) {
-                        if (line.startsWith("问题：")) {
-                            // 只有当当前问题为空时才设置新问题，避免覆盖
-                            if (currentQuestion.isEmpty()) {
-                                currentQuestion = line.substring(3).trim();
-                            }
-                        } else if (line.startsWith("我的思考：")) {
-                            currentAnswer = line.substring(5).trim();
-                        } else if (line.startsWith("记录时间：")) {
-                            currentTimestamp = line.substring(5).trim();
-                        } else if (line.equals("---")) {
-                            if (!currentQuestion.isEmpty()) {
-                                entries.add(new HistoryEntry(currentQuestion, currentAnswer, currentTimestamp));
-                                currentQuestion = "";
-                                currentAnswer = "";
-                                currentTimestamp = "";
-                            }
-                        }
-                    }
-                    
-                    // 处理文件末尾可能没有分隔符的情况
-                    if (!currentQuestion.isEmpty()) {
-                        entries.add(new HistoryEntry(currentQuestion, currentAnswer, currentTimestamp));
-                    }
-                }
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return entries;
-    }
-    
-    // 显示历史记录内容
-    private void showHistoryContent(String selectedValue, JPanel contentPanel) {
-        if (selectedValue == null) return;
-        
-        // 提取问题文本和时间戳，确保正确去除"问题："前缀
-        String questionText = selectedValue;
-        String timestampText = "";
-        
-        // 检查是否包含时间戳信息
-        if (selectedValue.startsWith("问题：")) {
-            // 查找时间戳部分的开始位置
-            int timestampIndex = selectedValue.lastIndexOf(" [");
-            if (timestampIndex != -1 && selectedValue.endsWith("]")) {
-                questionText = selectedValue.substring(3, timestampIndex).trim();
-                timestampText = selectedValue.substring(timestampIndex + 2, selectedValue.length() - 1).trim();
-            } else {
-                questionText = selectedValue.substring(3).trim();
-            }
-        }
-        
-        // 查找对应的历史记录
-        ArrayList<HistoryEntry> entries = loadHistoryEntries();
-        
-        // 首先尝试使用问题+时间戳精确匹配
-        if (!timestampText.isEmpty()) {
-            for (HistoryEntry entry : entries) {
-                if (entry.getQuestion().equals(questionText) && entry.getTimestamp().equals(timestampText)) {
-                    displayHistoryContent(entry, contentPanel);
-                    return;
-                }
-            }
-        }
+    // 显示历史记录内容：按列表位置取得记录ID，通过索引只读取并解码这一条记录
+    private void showHistoryContent(int selectedIndex, JPanel contentPanel) {
+        if (selectedIndex < 0 || selectedIndex >= historyListModel.getSize() || historyRepository == null) return;
         
-        // 如果没有时间戳或时间戳匹配失败，则按原来的逻辑处理（兼容旧数据）
-        for (HistoryEntry entry : entries) {
-            if (entry.getQuestion().equals(questionText)) {
+        try {
+            HistoryEntry entry = historyRepository.read(historyListModel.getEntry(selectedIndex).getId());
+            if (entry != null) {
                 displayHistoryContent(entry, contentPanel);
-                break;
             }
+        } catch (IOException e) {
+            showNotification("读取失败", "读取历史记录失败: " + e.getMessage(), NotificationPanel.NotificationType.ERROR);
         }
     }
     
@@ -5284,133 +12206,38 @@ public class ThinkingPad {
     }
     
     // 删除历史记录
-    private void deleteHistoryRecord(JList<String> historyQuestionList, DefaultListModel<String> historyListModel) {
-        String selectedValue = historyQuestionList.getSelectedValue();
-        if (selectedValue == null) return;
+    private void deleteHistoryRecord(JList<String> historyQuestionList) {
+        int selectedIndex = historyQuestionList.getSelectedIndex();
+        if (selectedIndex < 0 || selectedIndex >= historyListModel.getSize()) return;
         
-        // 提取问题文本和时间戳，确保正确去除"问题："前缀
-        String questionText = selectedValue;
-        String timestampText = "";
-        
-        // 检查是否包含时间戳信息
-        if (selectedValue.startsWith("问题：")) {
-            // 查找时间戳部分的开始位置
-            int timestampIndex = selectedValue.lastIndexOf(" [");
-            if (timestampIndex != -1 && selectedValue.endsWith("]")) {
-                questionText = selectedValue.substring(3, timestampIndex).trim();
-                timestampText = selectedValue.substring(timestampIndex + 2, selectedValue.length() - 1).trim();
-            } else {
-                questionText = selectedValue.substring(3).trim();
-            }
-        }
+        HistoryEntry entry = historyListModel.getEntry(selectedIndex);
         
         ModernConfirmDialog dialog = new ModernConfirmDialog(frame, 
-            "确认删除", "确定要删除这条历史记录吗？\n\n" + questionText + 
-            (timestampText.isEmpty() ? "" : "\n记录时间：" + timestampText));
+            "确认删除", "确定要删除这条历史记录吗？\n\n" + entry.getQuestion() + 
+            (entry.getTimestamp().isEmpty() ? "" : "\n记录时间：" + entry.getTimestamp()));
         
         if (dialog.showConfirmDialog()) {
-            int selectedIndex = historyQuestionList.getSelectedIndex();
-            
-            // 使用动画删除
+            // 使用动画删除（条目随列表模型一起移除）
             if (historyQuestionList instanceof AnimatedJList) {
-                // 将变量设为final以便在lambda中使用
-                final String finalQuestionText = questionText;
-                final String finalSelectedValue = selectedValue;
                 ((AnimatedJList)historyQuestionList).deleteWithAnimation(selectedIndex, () -> {
-                    performActualHistoryDeletion(finalQuestionText, historyListModel, finalSelectedValue);
+                    performActualHistoryDeletion(entry);
                 });
             } else {
                 // 如果不是AnimatedJList，直接删除
-                performActualHistoryDeletion(questionText, historyListModel, selectedValue);
+                historyListModel.removeElementAt(selectedIndex);
+                performActualHistoryDeletion(entry);
             }
         }
     }
     
-    // 执行实际的历史记录删除操作
-    private void performActualHistoryDeletion(String questionText, DefaultListModel<String> historyListModel, String selectedValue) {
-        // 从selectedValue中提取时间戳
-        String timestampText = "";
-        if (selectedValue.startsWith("问题：")) {
-            int timestampIndex = selectedValue.lastIndexOf(" [");
-            if (timestampIndex != -1 && selectedValue.endsWith("]")) {
-                timestampText = selectedValue.substring(timestampIndex + 2, selectedValue.length() - 1).trim();
-            }
-        }
-        
+    // 执行实际的历史记录删除操作：按记录ID在日志中标记删除，无需重写整个文件
+    private void performActualHistoryDeletion(HistoryEntry entry) {
         try {
-            // 读取所有记录
-            ArrayList<String> lines = new ArrayList<>();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(DATA_FILE), "UTF-8"))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    lines.add(line);
-                }
-            }
-            
-            // 逐条记录处理，支持时间戳精确匹配
-            ArrayList<String> newLines = new ArrayList<>();
-            boolean foundMatch = false;
-            
-            for (int i = 0; i < lines.size(); ) {
-                // 找到一个记录的开始
-                if (i < lines.size() && lines.get(i).startsWith("问题：")) {
-                    String currentQuestion = lines.get(i).substring(3).trim();
-                    String currentAnswer = "";
-                    String currentTimestamp = "";
-                    int endIndex = i + 1;
-                    
-                    // 查找这个记录的其他部分
-                    while (endIndex < lines.size() && !lines.get(endIndex).equals("---")) {
-                        String line = lines.get(endIndex);
-                        if (line.startsWith("我的思考：")) {
-                            currentAnswer = line.substring(5).trim();
-                        } else if (line.startsWith("记录时间：")) {
-                            currentTimestamp = line.substring(5).trim();
-                        }
-                        endIndex++;
-                    }
-                    
-                    // 判断是否是要删除的记录
-                    boolean shouldDelete = currentQuestion.equals(questionText);
-                    
-                    // 如果有时间戳，需要同时匹配时间戳
-                    if (!timestampText.isEmpty()) {
-                        shouldDelete = shouldDelete && currentTimestamp.equals(timestampText);
-                    }
-                    
-                    if (shouldDelete && !foundMatch) {
-                        // 跳过这个记录（不添加到新列表）
-                        foundMatch = true;
-                        i = endIndex + 1; // 跳过分隔符
-                    } else {
-                        // 保留这个记录
-                        for (int j = i; j <= endIndex && j < lines.size(); j++) {
-                            newLines.add(lines.get(j));
-                        }
-                        i = endIndex + 1; // 移动到下一个记录
-                    }
-                } else {
-                    // 不是记录开始，直接添加（可能是文件开头的空行等）
-                    newLines.add(lines.get(i));
-                    i++;
-                }
-            }
-            
-            // 如果没有找到匹配的记录，显示错误
-            if (!foundMatch) {
+            if (historyRepository == null || !historyRepository.delete(entry.getId())) {
                 showNotification("删除失败", "未找到匹配的历史记录", NotificationPanel.NotificationType.ERROR);
                 return;
             }
             
-            // 写回文件
-            try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(DATA_FILE), "UTF-8"))) {
-                for (String line : newLines) {
-                    writer.println(line);
-                }
-            }
-            
-            // 从列表中移除选中项
-            historyListModel.removeElement(selectedValue);
             showNotification("删除成功", "历史记录已删除", NotificationPanel.NotificationType.SUCCESS);
             
         } catch (Exception e) {
@@ -5419,7 +12246,7 @@ public class ThinkingPad {
     }
     
     // 删除已导入问题
-    private void deleteImportedQuestion(JList<String> importedList, DefaultListModel<String> importedListModel) {
+    private void deleteImportedQuestion(JList<String> importedList) {
         String selectedValue = importedList.getSelectedValue();
         if (selectedValue == null) return;
         
@@ -5429,33 +12256,24 @@ public class ThinkingPad {
         if (dialog.showConfirmDialog()) {
             int selectedIndex = importedList.getSelectedIndex();
             
-            // 使用动画删除
+            // 使用动画删除（问题随列表模型从题库中移除）
             if (importedList instanceof AnimatedJListForImported) {
                 ((AnimatedJListForImported)importedList).deleteWithAnimation(selectedIndex, () -> {
-                    performActualImportedDeletion(selectedValue, importedListModel);
+                    performActualImportedDeletion();
                 });
             } else {
                 // 如果不是AnimatedJListForImported，直接删除
-                performActualImportedDeletion(selectedValue, importedListModel);
+                importedListModel.removeElementAt(selectedIndex);
+                performActualImportedDeletion();
             }
         }
     }
     
-    // 执行实际的已导入问题删除操作
-    private void performActualImportedDeletion(String selectedValue, DefaultListModel<String> importedListModel) {
+    // 执行实际的已导入问题删除操作：问题已从题库移除，把题库写回文件
+    private void performActualImportedDeletion() {
         try {
-            // 从内存中删除
-            questions.remove(selectedValue);
-            
-            // 更新文件
-            try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(QUESTIONS_FILE), "UTF-8"))) {
-                for (String question : questions) {
-                    writer.println(question);
-                }
-            }
+            storage.replaceQuestions(questions.snapshot());
             
-            // 更新列表
-            importedListModel.removeElement(selectedValue);
             showNotification("删除成功", "问题已删除", NotificationPanel.NotificationType.SUCCESS);
             
         } catch (Exception e) {
@@ -5470,17 +12288,13 @@ public class ThinkingPad {
         
         if (dialog.showConfirmDialog()) {
             try {
-                // 删除文件
-                File file = new File(DATA_FILE);
-                if (file.exists()) {
-                    file.delete();
+                // 清空日志（只保留文件头），列表通过仓库的通知清空
+                if (historyRepository != null) {
+                    historyRepository.clear();
                 }
                 
                 showNotification("清空成功", "所有历史记录已清空", NotificationPanel.NotificationType.SUCCESS);
                 
-                // 刷新界面
-                refreshHistoryTab();
-                
             } catch (Exception e) {
                 showNotification("清空失败", "清空历史记录时出错: " + e.getMessage(), NotificationPanel.NotificationType.ERROR);
             }
@@ -5510,10 +12324,8 @@ public class ThinkingPad {
                             if (viewComponent instanceof JList) {
                                 @SuppressWarnings("unchecked")
                                 JList<String> historyList = (JList<String>) viewComponent;
-                                String selectedValue = historyList.getSelectedValue();
-                                if (selectedValue != null) {
-                                    DefaultListModel<String> model = (DefaultListModel<String>) historyList.getModel();
-                                    deleteHistoryRecord(historyList, model);
+                                if (historyList.getSelectedIndex() >= 0) {
+                                    deleteHistoryRecord(historyList);
                                 } else {
                                     showNotification("提示", "请先选择要删除的历史记录", NotificationPanel.NotificationType.WARNING);
                                 }
@@ -5527,6 +12339,13 @@ public class ThinkingPad {
         showNotification("错误", "无法找到历史记录列表", NotificationPanel.NotificationType.ERROR);
     }
     
+    // 删除题库文件并清空题库，列表随之清空（EDT）；按需读取时先释放题库文件的映射
+    public void clearQuestionBank() throws IOException {
+        releaseLazyQuestions();
+        storage.clearQuestions();
+        importedListModel.clear();
+    }
+    
     // 清空所有已导入问题
     private void clearAllImportedQuestions() {
         ModernConfirmDialog dialog = new ModernConfirmDialog(frame, 
@@ -5534,20 +12353,10 @@ public class ThinkingPad {
         
         if (dialog.showConfirmDialog()) {
             try {
-                // 删除文件
-                File file = new File(QUESTIONS_FILE);
-                if (file.exists()) {
-                    file.delete();
-                }
-                
-                // 清空内存
-                questions.clear();
+                clearQuestionBank();
                 
                 showNotification("清空成功", "所有已导入问题已清空", NotificationPanel.NotificationType.SUCCESS);
                 
-                // 刷新界面
-                refreshImportedTab();
-                
             } catch (Exception e) {
                 showNotification("清空失败", "清空已导入问题时出错: " + e.getMessage(), NotificationPanel.NotificationType.ERROR);
             }
@@ -5572,10 +12381,8 @@ public class ThinkingPad {
                     if (viewComponent instanceof JList) {
                         @SuppressWarnings("unchecked")
                         JList<String> importedList = (JList<String>) viewComponent;
-                        String selectedValue = importedList.getSelectedValue();
-                        if (selectedValue != null) {
-                            DefaultListModel<String> model = (DefaultListModel<String>) importedList.getModel();
-                            deleteImportedQuestion(importedList, model);
+                        if (importedList.getSelectedIndex() >= 0) {
+                            deleteImportedQuestion(importedList);
                         } else {
                             showNotification("提示", "请先选择要删除的已导入问题", NotificationPanel.NotificationType.WARNING);
                         }
@@ -5587,70 +12394,6 @@ public class ThinkingPad {
         showNotification("错误", "无法找到已导入问题列表", NotificationPanel.NotificationType.ERROR);
     }
     
-    // 刷新历史记录选项卡
-    private void refreshHistoryTab() {
-        // 确保在EDT线程中执行
-        if (!SwingUtilities.isEventDispatchThread()) {
-            SwingUtilities.invokeLater(() -> refreshHistoryTab());
-            return;
-        }
-        
-        if (mainTabbedPane == null) return;
-        
-        try {
-            // 获取历史记录选项卡（索引为1）
-            Component historyTabComponent = mainTabbedPane.getComponentAt(1);
-            if (historyTabComponent instanceof JPanel) {
-                JPanel historyPanel = (JPanel) historyTabComponent;
-                
-                // 查找内容面板（使用GoldenRatioLayout的面板）
-                for (Component comp : historyPanel.getComponents()) {
-                    if (comp instanceof JPanel && ((JPanel)comp).getLayout() instanceof GoldenRatioLayout) {
-                        JPanel contentPanel = (JPanel) comp;
-                        GoldenRatioLayout layout = (GoldenRatioLayout) contentPanel.getLayout();
-                        
-                        // 获取左侧面板（问题列表）
-                        Component leftComponent = layout.getLeftComponent();
-                        if (leftComponent instanceof JPanel) {
-                            JPanel leftPanel = (JPanel) leftComponent;
-                            Component centerComponent = ((BorderLayout)leftPanel.getLayout()).getLayoutComponent(BorderLayout.CENTER);
-                            if (centerComponent instanceof JScrollPane) {
-                                JScrollPane scrollPane = (JScrollPane) centerComponent;
-                                Component viewComponent = scrollPane.getViewport().getView();
-                                if (viewComponent instanceof JList) {
-                                    @SuppressWarnings("unchecked")
-                                    JList<String> historyList = (JList<String>) viewComponent;
-                                    DefaultListModel<String> model = (DefaultListModel<String>) historyList.getModel();
-                                    
-                                    // 清空并重新加载历史记录
-                                    model.clear();
-                                    ArrayList<HistoryEntry> entries = loadHistoryEntries();
-                                    for (HistoryEntry entry : entries) {
-                                        // 确保正确添加问题文本，添加时间戳以区分相同问题的不同回答
-                                        String question = entry.getQuestion();
-                                        if (question != null && !question.trim().isEmpty()) {
-                                            String displayText = "问题：" + question.trim();
-                                            if (!entry.getTimestamp().isEmpty()) {
-                                                displayText += " [" + entry.getTimestamp() + "]";
-                                            }
-                                            model.addElement(displayText);
-                                        }
-                                    }
-                                    
-                                    System.out.println("历史记录已刷新，共 " + entries.size() + " 条记录");
-                                    return;
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-        } catch (Exception e) {
-            System.err.println("刷新历史记录选项卡时出错: " + e.getMessage());
-            e.printStackTrace();
-        }
-    }
-    
     // 刷新已导入问题选项卡
     private void refreshImportedTab() {
         // 确保在EDT线程中执行
@@ -5659,43 +12402,9 @@ public class ThinkingPad {
             return;
         }
         
-        if (mainTabbedPane == null) return;
-        
-        try {
-            // 获取已导入问题选项卡（索引为2）
-            Component importedTabComponent = mainTabbedPane.getComponentAt(2);
-            if (importedTabComponent instanceof JPanel) {
-                JPanel importedPanel = (JPanel) importedTabComponent;
-                
-                // 查找内容面板
-                Component centerComponent = ((BorderLayout)importedPanel.getLayout()).getLayoutComponent(BorderLayout.CENTER);
-                if (centerComponent instanceof JPanel) {
-                    JPanel contentPanel = (JPanel) centerComponent;
-                    Component scrollComponent = ((BorderLayout)contentPanel.getLayout()).getLayoutComponent(BorderLayout.CENTER);
-                    if (scrollComponent instanceof JScrollPane) {
-                        JScrollPane scrollPane = (JScrollPane) scrollComponent;
-                        Component viewComponent = scrollPane.getViewport().getView();
-                        if (viewComponent instanceof JList) {
-                            @SuppressWarnings("unchecked")
-                            JList<String> importedList = (JList<String>) viewComponent;
-                            DefaultListModel<String> model = (DefaultListModel<String>) importedList.getModel();
-                            
-                            // 清空并重新加载已导入问题
-                            model.clear();
-                            for (String question : questions) {
-                                model.addElement(question);
-                            }
-                            
-                            System.out.println("已导入问题已刷新，共 " + questions.size() + " 个问题");
-                            return;
-                        }
-                    }
-                }
-            }
-        } catch (Exception e) {
-            System.err.println("刷新已导入问题选项卡时出错: " + e.getMessage());
-            e.printStackTrace();
-        }
+        // 列表直接展示题库，只需通知列表重新布局和绘制
+        importedListModel.refresh();
+        System.out.println("已导入问题已刷新，共 " + questions.snapshot().size() + " 个问题");
     }
 
     // 设置文本区域右键菜单
@@ -5771,6 +12480,27 @@ public class ThinkingPad {
     public static void main(String[] args) {
         System.out.println("ThinkingPad启动中...");
         
+        // 同一数据目录只允许一个实例：已有实例在运行时让它显示窗口，本进程不创建界面直接退出
+        File dataDirectory = new File(System.getProperty("user.dir"));
+        SingleInstance instance;
+        try {
+            instance = SingleInstance.acquire(dataDirectory);
+        } catch (IOException e) {
+            System.err.println("无法锁定数据目录: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        if (instance == null) {
+            if (SingleInstance.handOff(dataDirectory)) {
+                System.out.println("ThinkingPad已在运行，已切换到现有窗口");
+                System.exit(0);
+            }
+            System.err.println("数据目录正被另一个ThinkingPad进程使用: " + dataDirectory.getAbsolutePath());
+            System.exit(1);
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(instance::close, "single-instance-release"));
+        
         // 设置系统属性，在创建GUI之前
         try {
             // 设置文件编码
@@ -5798,7 +12528,8 @@ public class ThinkingPad {
         SwingUtilities.invokeLater(() -> {
             System.out.println("创建GUI...");
             try {
-                new ThinkingPad();
+                ThinkingPad pad = new ThinkingPad();
+                instance.setActivationListener(() -> SwingUtilities.invokeLater(pad::bringToFront));
                 System.out.println("GUI创建完成");
             } catch (Exception e) {
                 e.printStackTrace();